@@ -38,6 +38,12 @@ android {
     }
     buildFeatures {
         compose = true
+        buildConfig = true
+    }
+    testOptions {
+        unitTests {
+            isIncludeAndroidResources = true
+        }
     }
 }
 
@@ -81,6 +87,9 @@ dependencies {
     implementation(libs.androidx.lifecycle.viewmodel.compose)
     
     testImplementation(libs.junit)
+    testImplementation(libs.androidx.health.connect.testing)
+    testImplementation(libs.robolectric)
+    testImplementation(libs.androidx.test.core)
     androidTestImplementation(libs.androidx.junit)
     androidTestImplementation(libs.androidx.espresso.core)
     androidTestImplementation(platform(libs.androidx.compose.bom))
@@ -1,7 +1,13 @@
 package com.brainheartfitness
 
 import android.app.Application
+import com.brainheartfitness.data.local.HeartRateCompactionWorker
 import dagger.hilt.android.HiltAndroidApp
 
 @HiltAndroidApp
-class BrainHeartFitnessApplication : Application()
\ No newline at end of file
+class BrainHeartFitnessApplication : Application() {
+    override fun onCreate() {
+        super.onCreate()
+        HeartRateCompactionWorker.schedule(this)
+    }
+}
\ No newline at end of file
@@ -8,12 +8,17 @@ import androidx.compose.foundation.layout.fillMaxSize
 import androidx.compose.foundation.layout.padding
 import androidx.compose.material3.Scaffold
 import androidx.compose.ui.Modifier
+import com.brainheartfitness.data.health.HealthConnectManager
 import com.brainheartfitness.ui.BrainHeartFitnessApp
 import com.brainheartfitness.ui.theme.BrainHeartFitnessTheme
 import dagger.hilt.android.AndroidEntryPoint
+import javax.inject.Inject
 
 @AndroidEntryPoint
 class MainActivity : ComponentActivity() {
+    @Inject
+    lateinit var healthConnectManager: HealthConnectManager
+    
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         enableEdgeToEdge()
@@ -27,4 +32,11 @@ class MainActivity : ComponentActivity() {
             }
         }
     }
+    
+    override fun onResume() {
+        super.onResume()
+        // Permissions may have changed in system settings while we were in the background.
+        // HomeScreen checks them again on the same resume.
+        healthConnectManager.invalidatePermissionCache()
+    }
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package com.brainheartfitness.data.health
+
+import java.time.Duration
+import java.time.Instant
+
+// The stretches of heart rate an exercise-scoped read keeps: exercise sessions widened by a
+// margin for warm-up and cool-down. The repository reads these and HealthChangesSync mirrors
+// the same ones, so a scoped read of the synced week finds them stored.
+object ExerciseWindows {
+    val MARGIN: Duration = Duration.ofMinutes(10)
+    
+    // Windows of the sessions, given as start and end, clipped to the range and merged
+    // where they touch, in time order
+    fun of(
+        sessions: List<Pair<Instant, Instant>>,
+        startTime: Instant,
+        endTime: Instant
+    ): List<Pair<Instant, Instant>> {
+        val windows = mutableListOf<Pair<Instant, Instant>>()
+        sessions.sortedBy { it.first }.forEach { (sessionStart, sessionEnd) ->
+            val windowStart = maxOf(sessionStart.minus(MARGIN), startTime)
+            val windowEnd = minOf(sessionEnd.plus(MARGIN), endTime)
+            if (windowStart >= windowEnd) return@forEach
+            val last = windows.lastOrNull()
+            if (last != null && windowStart <= last.second) {
+                windows[windows.lastIndex] = last.first to maxOf(last.second, windowEnd)
+            } else {
+                windows.add(windowStart to windowEnd)
+            }
+        }
+        return windows
+    }
+}
\ No newline at end of file
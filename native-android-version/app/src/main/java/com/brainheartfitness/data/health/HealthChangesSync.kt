@@ -0,0 +1,285 @@
+package com.brainheartfitness.data.health
+
+import androidx.health.connect.client.changes.DeletionChange
+import androidx.health.connect.client.changes.UpsertionChange
+import androidx.health.connect.client.records.ExerciseSessionRecord
+import androidx.health.connect.client.records.HeartRateRecord
+import androidx.health.connect.client.records.Record
+import androidx.health.connect.client.records.StepsRecord
+import com.brainheartfitness.data.local.HeartRateSampleStore
+import com.brainheartfitness.data.local.KnownRecordEntity
+import com.brainheartfitness.data.local.KnownRecordStore
+import com.brainheartfitness.data.local.SealedDayStore
+import com.brainheartfitness.data.local.SyncStateEntity
+import com.brainheartfitness.data.repository.HeartRateReadMode
+import com.brainheartfitness.data.repository.SummaryCache
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.time.Instant
+import kotlin.reflect.KClass
+
+data class SyncResult(
+    val upserts: Int,
+    val deletions: Int,
+    val fullReload: Boolean,
+    val failed: Boolean = false
+)
+
+// Mirrors the heart rate of the synced window into HeartRateSampleStore and keeps it, and
+// whatever is sealed or cached, up to date through the Health Connect Changes API, so a
+// refresh only pays for records written since the last sync. Nothing is held in memory:
+// the token and window are stored next to the samples, so a cold start resumes from the
+// token instead of reading the window again. Heart rate is mirrored as the repository reads
+// it: all of the window in FULL mode, only its exercise windows when exercise-scoped.
+class HealthChangesSync(
+    private val healthConnectManager: HealthConnectManager,
+    private val heartRateSampleStore: HeartRateSampleStore,
+    private val summaryCache: SummaryCache,
+    private val sealedDayStore: SealedDayStore,
+    private val knownRecordStore: KnownRecordStore,
+    private val heartRateReadMode: HeartRateReadMode
+) {
+    private val mutex = Mutex()
+    
+    // Sync reads are background work, they leave the foreground reserve to screen reads
+    suspend fun sync(
+        windowStart: Instant,
+        priority: CallPriority = CallPriority.BACKGROUND
+    ): SyncResult = mutex.withLock {
+        try {
+            val state = knownRecordStore.getSyncState()
+            state?.let { applyChanges(it, windowStart, priority) } ?: run {
+                // Never seeded, or what changed can no longer be placed
+                if (state != null) reset()
+                seed(windowStart, priority)
+            }
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            // Keep serving what is stored, the next sync retries from the same token. A
+            // failed seed has saved no token, so the next sync seeds again.
+            SyncResult(upserts = 0, deletions = 0, fullReload = false, failed = true)
+        }
+    }
+    
+    // Returns null when the token has expired, or a deletion can't be placed, and the
+    // window has to be read again
+    private suspend fun applyChanges(state: SyncStateEntity, windowStart: Instant, priority: CallPriority): SyncResult? {
+        // What the batch does to the known records, applied with the new token at the end
+        val changed = LinkedHashMap<String, KnownRecordEntity?>()
+        val affected = mutableListOf<KnownRecordEntity>()
+        var upserts = 0
+        var deletions = 0
+        var nextToken = state.changesToken
+        do {
+            val response = healthConnectManager.getChanges(nextToken, priority)
+            if (response.changesTokenExpired) return null
+            response.changes.forEach { change ->
+                when (change) {
+                    is UpsertionChange -> {
+                        val record = knownRecordOf(change.record) ?: return@forEach
+                        knownRecord(record.recordId, changed)?.let(affected::add)
+                        affected.add(record)
+                        changed[record.recordId] = record
+                        upserts++
+                    }
+                    is DeletionChange -> {
+                        // Only the id is reported, a record never seen could have been anywhere
+                        val record = knownRecord(change.recordId, changed) ?: return null
+                        affected.add(record)
+                        changed[change.recordId] = null
+                        deletions++
+                    }
+                }
+            }
+            nextToken = response.nextChangesToken
+        } while (response.hasMore)
+        
+        val now = Instant.now()
+        invalidate(affected)
+        // Heart rate changed inside the window is read again, together with what was written
+        // since the last sync and, if the window has grown back, its new part. When scoped,
+        // only where it falls in an exercise window, and the windows of new or moved sessions
+        // are read whole.
+        val windowStartMillis = windowStart.toEpochMilli()
+        val nowMillis = now.toEpochMilli()
+        val margin = ExerciseWindows.MARGIN.toMillis()
+        val reads = affected.filter { it.type == KnownRecordEntity.HEART_RATE }.map { it.startMillis to it.endMillis } +
+            changed.values.filterNotNull().filter { it.type == KnownRecordEntity.EXERCISE }.map { it.startMillis - margin to it.endMillis + margin } +
+            (maxOf(state.syncedUntil, windowStartMillis) to nowMillis) +
+            (windowStartMillis to state.windowStart)
+        val merged = mergeRanges(reads, windowStartMillis, nowMillis)
+        val scoped = when (heartRateReadMode) {
+            HeartRateReadMode.FULL -> merged
+            HeartRateReadMode.EXERCISE_SCOPED -> intersect(merged, exerciseWindows(windowStartMillis, nowMillis, changed))
+        }
+        scoped.forEach { (startMillis, endMillis) ->
+            mirrorHeartRate(Instant.ofEpochMilli(startMillis), Instant.ofEpochMilli(endMillis), priority)
+        }
+        
+        knownRecordStore.prune(now)
+        knownRecordStore.commit(
+            SyncStateEntity(changesToken = nextToken, windowStart = windowStartMillis, syncedUntil = now.toEpochMilli()),
+            changed
+        )
+        return SyncResult(upserts = upserts, deletions = deletions, fullReload = false)
+    }
+    
+    // Drops stored samples, sealed days and cached summaries a change affects, at the record's
+    // old time range as well as its new one. Old ranges come from KnownRecordStore, an upsert
+    // of a record never seen is taken as new. Stored heart rate stays uncovered until it is
+    // read again, by the sync inside the window and by the next load outside it.
+    private suspend fun invalidate(ranges: List<KnownRecordEntity>) {
+        ranges.forEach { range ->
+            val startTime = Instant.ofEpochMilli(range.startMillis)
+            val endTime = Instant.ofEpochMilli(range.endMillis)
+            summaryCache.invalidate(startTime, endTime)
+            // Late or edited heart rate may land in a range already stored
+            if (range.type == KnownRecordEntity.HEART_RATE) {
+                heartRateSampleStore.invalidate(startTime, endTime)
+            }
+            // Sealed days hold heart rate stats and step totals
+            if (range.type == KnownRecordEntity.HEART_RATE || range.type == KnownRecordEntity.STEPS) {
+                sealedDayStore.unseal(startTime, endTime)
+            }
+        }
+    }
+    
+    // Everything derived from Health Connect may be stale, it is all read again
+    private suspend fun reset() {
+        summaryCache.invalidateAll()
+        sealedDayStore.unsealAll()
+        heartRateSampleStore.invalidateAll()
+        knownRecordStore.clearSyncState()
+    }
+    
+    // Changes earlier in the batch come first, they are newer than what is stored
+    private suspend fun knownRecord(recordId: String, changed: Map<String, KnownRecordEntity?>): KnownRecordEntity? =
+        if (recordId in changed) changed[recordId] else knownRecordStore.get(recordId)
+    
+    private fun knownRecordOf(record: Record): KnownRecordEntity? {
+        val (type, startTime, endTime) = when (record) {
+            is HeartRateRecord -> Triple(KnownRecordEntity.HEART_RATE, record.startTime, record.endTime)
+            is StepsRecord -> Triple(KnownRecordEntity.STEPS, record.startTime, record.endTime)
+            is ExerciseSessionRecord -> Triple(KnownRecordEntity.EXERCISE, record.startTime, record.endTime)
+            else -> return null
+        }
+        return KnownRecordEntity(record.metadata.id, type, startTime.toEpochMilli(), endTime.toEpochMilli())
+    }
+    
+    // Reads the window into the store, a day at a time or an exercise window at a time, and
+    // remembers every record in it. The token is only saved once all of it has been read, so
+    // a seed that fails partway is started over by the next sync.
+    private suspend fun seed(windowStart: Instant, priority: CallPriority): SyncResult = coroutineScope {
+        // Take the token before reading so edits made during the read are replayed next sync
+        val token = healthConnectManager.getChangesToken(SYNCED_RECORD_TYPES, priority)
+        val now = Instant.now()
+        
+        val exercise = async {
+            val sessions = mutableListOf<Pair<Instant, Instant>>()
+            healthConnectManager.readExercisePages(windowStart, now, priority = priority).collect { page ->
+                knownRecordStore.put(page.mapNotNull(::knownRecordOf))
+                page.forEach { sessions.add(it.startTime to it.endTime) }
+            }
+            sessions
+        }
+        val heartRate = async {
+            when (heartRateReadMode) {
+                HeartRateReadMode.FULL -> {
+                    var count = 0
+                    healthConnectManager.readHeartRateSharded(windowStart, now, priority = priority).collect { shard ->
+                        // The changes token would never repair a hole, so a shard that failed its
+                        // retries fails the seed, which is started over until one succeeds
+                        shard.error?.let { throw it }
+                        heartRateSampleStore.putRecords(shard.startTime, shard.endTime, shard.records)
+                        knownRecordStore.put(shard.records.mapNotNull(::knownRecordOf))
+                        count += shard.records.size
+                    }
+                    count
+                }
+                HeartRateReadMode.EXERCISE_SCOPED ->
+                    ExerciseWindows.of(exercise.await(), windowStart, now).sumOf { (start, end) ->
+                        mirrorHeartRate(start, end, priority)
+                    }
+            }
+        }
+        val steps = async {
+            var count = 0
+            healthConnectManager.readStepsPages(windowStart, now, priority = priority).collect { page ->
+                knownRecordStore.put(page.mapNotNull(::knownRecordOf))
+                count += page.size
+            }
+            count
+        }
+        val upserts = heartRate.await() + steps.await() + exercise.await().size
+        
+        knownRecordStore.prune(now)
+        knownRecordStore.commit(
+            SyncStateEntity(changesToken = token, windowStart = windowStart.toEpochMilli(), syncedUntil = now.toEpochMilli())
+        )
+        SyncResult(upserts = upserts, deletions = 0, fullReload = true)
+    }
+    
+    // Rewrites a range of the store from Health Connect, merged across sources like a seed,
+    // and returns how many records it read
+    private suspend fun mirrorHeartRate(startTime: Instant, endTime: Instant, priority: CallPriority): Int {
+        val records = buildList {
+            healthConnectManager.readHeartRatePages(startTime, endTime, priority = priority).collect { page -> addAll(page) }
+        }
+        heartRateSampleStore.putRecords(startTime, endTime, records)
+        knownRecordStore.put(records.mapNotNull(::knownRecordOf))
+        return records.size
+    }
+    
+    // Exercise windows of [startMillis, endMillis) from the sessions known so far, with the
+    // batch's changes applied over them
+    private suspend fun exerciseWindows(
+        startMillis: Long,
+        endMillis: Long,
+        changed: Map<String, KnownRecordEntity?>
+    ): List<Pair<Long, Long>> {
+        val margin = ExerciseWindows.MARGIN.toMillis()
+        val known = knownRecordStore.getOverlapping(KnownRecordEntity.EXERCISE, startMillis - margin, endMillis + margin)
+            .filter { it.recordId !in changed }
+        val sessions = (known + changed.values.filterNotNull().filter { it.type == KnownRecordEntity.EXERCISE })
+            .map { Instant.ofEpochMilli(it.startMillis) to Instant.ofEpochMilli(it.endMillis) }
+        return ExerciseWindows.of(sessions, Instant.ofEpochMilli(startMillis), Instant.ofEpochMilli(endMillis))
+            .map { (start, end) -> start.toEpochMilli() to end.toEpochMilli() }
+    }
+    
+    // The parts of the ranges that lie inside the windows
+    private fun intersect(ranges: List<Pair<Long, Long>>, windows: List<Pair<Long, Long>>): List<Pair<Long, Long>> =
+        ranges.flatMap { (start, end) ->
+            windows.mapNotNull { (windowStart, windowEnd) ->
+                (maxOf(start, windowStart) to minOf(end, windowEnd)).takeIf { it.first < it.second }
+            }
+        }
+    
+    // Clips the ranges to [startMillis, endMillis) and merges the ones that overlap or touch
+    private fun mergeRanges(ranges: List<Pair<Long, Long>>, startMillis: Long, endMillis: Long): List<Pair<Long, Long>> {
+        val merged = mutableListOf<Pair<Long, Long>>()
+        ranges.map { (start, end) -> maxOf(start, startMillis) to minOf(end, endMillis) }
+            .filter { (start, end) -> start < end }
+            .sortedBy { it.first }
+            .forEach { (start, end) ->
+                val last = merged.lastOrNull()
+                if (last != null && start <= last.second) {
+                    merged[merged.lastIndex] = last.first to maxOf(last.second, end)
+                } else {
+                    merged.add(start to end)
+                }
+            }
+        return merged
+    }
+    
+    companion object {
+        val SYNCED_RECORD_TYPES: Set<KClass<out Record>> = setOf(
+            HeartRateRecord::class,
+            StepsRecord::class,
+            ExerciseSessionRecord::class
+        )
+    }
+}
\ No newline at end of file
@@ -6,24 +6,59 @@ import androidx.health.connect.client.HealthConnectClient
 import androidx.health.connect.client.PermissionController
 import androidx.health.connect.client.permission.HealthPermission
 import androidx.health.connect.client.records.ExerciseSessionRecord
+import androidx.health.connect.client.records.metadata.DataOrigin
 import androidx.health.connect.client.records.HeartRateRecord
+import androidx.health.connect.client.records.Record
 import androidx.health.connect.client.records.StepsRecord
 import androidx.health.connect.client.records.TotalCaloriesBurnedRecord
+import androidx.health.connect.client.request.AggregateGroupByDurationRequest
+import androidx.health.connect.client.request.AggregateGroupByPeriodRequest
+import androidx.health.connect.client.request.ChangesTokenRequest
 import androidx.health.connect.client.request.ReadRecordsRequest
+import androidx.health.connect.client.response.ChangesResponse
 import androidx.health.connect.client.time.TimeRangeFilter
 import com.brainheartfitness.data.model.HealthConnectState
-import dagger.hilt.android.qualifiers.ApplicationContext
+import com.brainheartfitness.data.model.HeartRateStats
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.withContext
+import java.time.Duration
 import java.time.Instant
-import javax.inject.Inject
-import javax.inject.Singleton
+import java.time.LocalDate
+import java.time.Period
+import java.time.ZoneId
+import kotlin.reflect.KClass
 
-@Singleton
-class HealthConnectManager @Inject constructor(
-    @ApplicationContext private val context: Context
-) {
-    private val healthConnectClient = HealthConnectClient.getOrCreate(context)
+// One day-sized slice of a sharded read. A shard that still failed after its retries
+// carries the error and no records, the other shards are unaffected.
+data class HeartRateShard(
+    val startTime: Instant,
+    val endTime: Instant,
+    val records: List<HeartRateRecord>,
+    val error: Exception? = null
+)
+
+class HealthConnectManager(
+    private val context: Context,
+    private val healthConnectClient: HealthConnectClient,
+    private val scheduler: HealthConnectScheduler,
+    private val heartRateSourceMerger: HeartRateSourceMerger,
+    // Page size for reads that don't ask for one, tests lower it to exercise paging
+    private val readPageSize: Int,
+    // Debug builds asked to record a trace get one, it sees every page and aggregate read
+    private val traceRecorder: HealthTraceRecorder? = null
+) : HealthDataSource {
+    val throttleState: StateFlow<ThrottleState> = scheduler.throttleState
+    
+    override val isLive: Boolean = true
     
     private val permissions = setOf(
         HealthPermission.getReadPermission(HeartRateRecord::class),
@@ -41,84 +76,327 @@ class HealthConnectManager @Inject constructor(
         }
     }
     
+    // Permission snapshot: in memory for this process and persisted as a startup hint.
+    // The in-memory copy is dropped on app resume, the permission result replaces both.
+    private val permissionPrefs = context.getSharedPreferences(PERMISSION_PREFS_NAME, Context.MODE_PRIVATE)
+    
+    @Volatile
+    private var permissionsGranted: Boolean? = null
+    
     suspend fun hasAllPermissions(): Boolean = withContext(Dispatchers.IO) {
+        permissionsGranted?.let { return@withContext it }
         try {
-            val grantedPermissions = healthConnectClient.permissionController.getGrantedPermissions()
-            grantedPermissions.containsAll(permissions)
+            val grantedPermissions = scheduler.run {
+                healthConnectClient.permissionController.getGrantedPermissions()
+            }
+            grantedPermissions.containsAll(permissions).also(::storePermissionSnapshot)
         } catch (e: Exception) {
             false
         }
     }
     
+    // Last known answer without an IPC round trip, null if permissions were never checked
+    fun getCachedPermissionState(): Boolean? =
+        permissionsGranted ?: if (permissionPrefs.contains(KEY_ALL_GRANTED)) {
+            permissionPrefs.getBoolean(KEY_ALL_GRANTED, false)
+        } else {
+            null
+        }
+    
+    fun onPermissionsResult(granted: Set<HealthPermission>) {
+        storePermissionSnapshot(granted.containsAll(permissions))
+    }
+    
+    // Permissions can be revoked from system settings while the app is in the background
+    fun invalidatePermissionCache() {
+        permissionsGranted = null
+    }
+    
+    private fun storePermissionSnapshot(granted: Boolean) {
+        permissionsGranted = granted
+        permissionPrefs.edit().putBoolean(KEY_ALL_GRANTED, granted).apply()
+    }
+    
     fun createPermissionRequestContract(): ActivityResultContract<Set<HealthPermission>, Set<HealthPermission>> {
         return PermissionController.createRequestPermissionResultContract()
     }
     
     fun getRequiredPermissions(): Set<HealthPermission> = permissions
     
-    suspend fun getHeartRateData(startTime: Instant, endTime: Instant): List<HeartRateRecord> = withContext(Dispatchers.IO) {
+    // Throttled reads are rethrown rather than replaced with fallback data, so callers
+    // can tell an exhausted quota apart from an empty range
+    suspend fun getHeartRateData(
+        startTime: Instant,
+        endTime: Instant,
+        origins: Set<String> = emptySet()
+    ): List<HeartRateRecord> = withContext(Dispatchers.IO) {
         try {
-            val request = ReadRecordsRequest(
-                recordType = HeartRateRecord::class,
-                timeRangeFilter = TimeRangeFilter.between(startTime, endTime)
-            )
-            healthConnectClient.readRecords(request).records
+            buildList {
+                readHeartRatePages(startTime, endTime, origins = origins).collect { page -> addAll(page) }
+            }
+        } catch (e: HealthConnectThrottledException) {
+            throw e
         } catch (e: Exception) {
-            // Return dummy data for development/testing
-            generateDummyHeartRateData(startTime, endTime)
+            emptyList()
         }
     }
     
+    // Reads heart rate straight into a primitive sample buffer. Each page is merged across
+    // sources as it arrives, so its HeartRateRecord objects can be dropped right away.
+    override suspend fun getHeartRateSamples(
+        startTime: Instant,
+        endTime: Instant,
+        origins: Set<String>
+    ): HeartRateSampleBuffer = withContext(Dispatchers.IO) {
+        val buffer = HeartRateSampleBuffer()
+        try {
+            val session = heartRateSourceMerger.newSession(buffer)
+            readHeartRatePages(startTime, endTime, origins = origins).collect { page ->
+                page.forEach(session::add)
+            }
+            session.finish()
+            buffer
+        } catch (e: HealthConnectThrottledException) {
+            throw e
+        } catch (e: Exception) {
+            buffer.clear()
+            buffer
+        }
+    }
+    
+    // Streams heart rate records one page at a time, following pageToken until the
+    // range is exhausted, so a week or month of 1 Hz data never has to be held at once
+    fun readHeartRatePages(
+        startTime: Instant,
+        endTime: Instant,
+        pageSize: Int = readPageSize,
+        priority: CallPriority = CallPriority.FOREGROUND,
+        origins: Set<String> = emptySet()
+    ): Flow<List<HeartRateRecord>> = readPages(HeartRateRecord::class, startTime, endTime, pageSize, priority, origins)
+    
     suspend fun getStepsData(startTime: Instant, endTime: Instant): List<StepsRecord> = withContext(Dispatchers.IO) {
         try {
-            val request = ReadRecordsRequest(
-                recordType = StepsRecord::class,
-                timeRangeFilter = TimeRangeFilter.between(startTime, endTime)
-            )
-            healthConnectClient.readRecords(request).records
+            buildList {
+                readPages(StepsRecord::class, startTime, endTime).collect { page -> addAll(page) }
+            }
+        } catch (e: HealthConnectThrottledException) {
+            throw e
         } catch (e: Exception) {
-            // Return dummy data for development/testing
-            generateDummyStepsData(startTime, endTime)
+            emptyList()
         }
     }
     
-    suspend fun getExerciseData(startTime: Instant, endTime: Instant): List<ExerciseSessionRecord> = withContext(Dispatchers.IO) {
+    override suspend fun getExerciseData(startTime: Instant, endTime: Instant): List<ExerciseSessionRecord> = withContext(Dispatchers.IO) {
         try {
-            val request = ReadRecordsRequest(
-                recordType = ExerciseSessionRecord::class,
-                timeRangeFilter = TimeRangeFilter.between(startTime, endTime)
-            )
-            healthConnectClient.readRecords(request).records
+            buildList {
+                readPages(ExerciseSessionRecord::class, startTime, endTime).collect { page -> addAll(page) }
+            }
+        } catch (e: HealthConnectThrottledException) {
+            throw e
         } catch (e: Exception) {
             emptyList()
         }
     }
     
-    // Generate dummy data for development/testing when Health Connect is not available
-    private fun generateDummyHeartRateData(startTime: Instant, endTime: Instant): List<HeartRateRecord> {
-        val dummyData = mutableListOf<HeartRateRecord>()
-        val interval = 5 * 60 * 1000L // 5 minutes in milliseconds
-        
-        var currentTime = startTime.toEpochMilli()
-        val endTimeMillis = endTime.toEpochMilli()
-        
-        while (currentTime <= endTimeMillis) {
-            val baseHeartRate = 70
-            val variation = kotlin.math.sin((currentTime - startTime.toEpochMilli()).toDouble() / (24 * 60 * 60 * 1000)) * 20
-            val randomVariation = (kotlin.math.random() - 0.5) * 10
-            val heartRate = maxOf(60, minOf(100, (baseHeartRate + variation + randomVariation).toInt()))
-            
-            // Note: Creating actual HeartRateRecord instances would require more setup
-            // For now, this is a placeholder - in real implementation you'd create proper records
-            currentTime += interval
+    // Min/max/avg BPM per bucket computed by Health Connect, so headline numbers need no
+    // sample scan on-device. Returns null when Health Connect can't be read.
+    override suspend fun getHeartRateStats(
+        startTime: Instant,
+        endTime: Instant,
+        bucket: Duration,
+        origins: Set<String>
+    ): List<HeartRateStats>? = withContext(Dispatchers.IO) {
+        val start = System.nanoTime()
+        val stats = try {
+            val request = AggregateGroupByDurationRequest(
+                metrics = setOf(
+                    HeartRateRecord.BPM_AVG,
+                    HeartRateRecord.BPM_MIN,
+                    HeartRateRecord.BPM_MAX,
+                    HeartRateRecord.MEASUREMENTS_COUNT
+                ),
+                timeRangeFilter = TimeRangeFilter.between(startTime, endTime),
+                timeRangeSlicer = bucket,
+                dataOriginFilter = origins.map { DataOrigin(it) }.toSet()
+            )
+            scheduler.run { healthConnectClient.aggregateGroupByDuration(request) }.mapNotNull { group ->
+                val average = group.result[HeartRateRecord.BPM_AVG] ?: return@mapNotNull null
+                HeartRateStats(
+                    startTime = group.startTime,
+                    endTime = group.endTime,
+                    averageBpm = average.toInt(),
+                    minBpm = (group.result[HeartRateRecord.BPM_MIN] ?: average).toInt(),
+                    maxBpm = (group.result[HeartRateRecord.BPM_MAX] ?: average).toInt(),
+                    sampleCount = group.result[HeartRateRecord.MEASUREMENTS_COUNT] ?: 1L
+                )
+            }
+        } catch (e: HealthConnectThrottledException) {
+            throw e
+        } catch (e: Exception) {
+            null
         }
-        
-        return dummyData
+        traceRecorder?.recordHeartRateStats(startTime, endTime, bucket, origins, stats, elapsedMicros(start))
+        stats
+    }
+    
+    // Per-day step totals summed and deduplicated across sources by Health Connect itself,
+    // endDate is exclusive. Returns null when Health Connect can't be read.
+    override suspend fun getDailyStepTotals(startDate: LocalDate, endDate: LocalDate): Map<LocalDate, Long>? = withContext(Dispatchers.IO) {
+        val start = System.nanoTime()
+        val totals = try {
+            val request = AggregateGroupByPeriodRequest(
+                metrics = setOf(StepsRecord.COUNT_TOTAL),
+                timeRangeFilter = TimeRangeFilter.between(startDate.atStartOfDay(), endDate.atStartOfDay()),
+                timeRangeSlicer = Period.ofDays(1)
+            )
+            scheduler.run { healthConnectClient.aggregateGroupByPeriod(request) }.associate { group ->
+                group.startTime.toLocalDate() to (group.result[StepsRecord.COUNT_TOTAL] ?: 0L)
+            }
+        } catch (e: HealthConnectThrottledException) {
+            throw e
+        } catch (e: Exception) {
+            null
+        }
+        traceRecorder?.recordStepTotals(startDate, endDate, totals, elapsedMicros(start))
+        totals
+    }
+    
+    // Splits a long range into local-day shards and reads up to `parallelism` of them at a
+    // time. Shards are retried on their own and emitted in time order as soon as each one
+    // and all earlier ones are done, so long histories load progressively.
+    fun readHeartRateSharded(
+        startTime: Instant,
+        endTime: Instant,
+        parallelism: Int = DEFAULT_SHARD_PARALLELISM,
+        priority: CallPriority = CallPriority.FOREGROUND,
+        origins: Set<String> = emptySet()
+    ): Flow<HeartRateShard> = flow {
+        require(parallelism > 0) { "parallelism must be positive" }
+        val shards = splitIntoDays(startTime, endTime)
+        coroutineScope {
+            val pending = ArrayDeque<Deferred<HeartRateShard>>()
+            var next = 0
+            while (next < shards.size || pending.isNotEmpty()) {
+                while (next < shards.size && pending.size < parallelism) {
+                    val (shardStart, shardEnd) = shards[next++]
+                    pending.addLast(async { readHeartRateShard(shardStart, shardEnd, priority, origins) })
+                }
+                emit(pending.removeFirst().await())
+            }
+        }
+    }.flowOn(Dispatchers.IO)
+    
+    private suspend fun readHeartRateShard(
+        startTime: Instant,
+        endTime: Instant,
+        priority: CallPriority,
+        origins: Set<String>
+    ): HeartRateShard {
+        var lastError: Exception? = null
+        repeat(SHARD_ATTEMPTS) { attempt ->
+            // A shard that just failed is likely to fail again right away
+            if (attempt > 0) delay(scheduler.backoffMillis(attempt - 1))
+            try {
+                val records = buildList {
+                    readHeartRatePages(startTime, endTime, priority = priority, origins = origins).collect { page -> addAll(page) }
+                }
+                return HeartRateShard(startTime, endTime, records)
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: HealthConnectThrottledException) {
+                // The scheduler has already backed off and retried, don't add to the pressure
+                return HeartRateShard(startTime, endTime, emptyList(), e)
+            } catch (e: Exception) {
+                lastError = e
+            }
+        }
+        return HeartRateShard(startTime, endTime, emptyList(), lastError)
+    }
+    
+    private fun splitIntoDays(startTime: Instant, endTime: Instant): List<Pair<Instant, Instant>> {
+        val zoneId = ZoneId.systemDefault()
+        val shards = mutableListOf<Pair<Instant, Instant>>()
+        var shardStart = startTime
+        while (shardStart < endTime) {
+            val nextMidnight = shardStart.atZone(zoneId).toLocalDate().plusDays(1).atStartOfDay(zoneId).toInstant()
+            val shardEnd = minOf(nextMidnight, endTime)
+            shards.add(shardStart to shardEnd)
+            shardStart = shardEnd
+        }
+        return shards
     }
     
-    private fun generateDummyStepsData(startTime: Instant, endTime: Instant): List<StepsRecord> {
-        val dummyData = mutableListOf<StepsRecord>()
-        // Similar dummy data generation for steps
-        return dummyData
+    fun readStepsPages(
+        startTime: Instant,
+        endTime: Instant,
+        pageSize: Int = readPageSize,
+        priority: CallPriority = CallPriority.FOREGROUND
+    ): Flow<List<StepsRecord>> = readPages(StepsRecord::class, startTime, endTime, pageSize, priority)
+    
+    fun readExercisePages(
+        startTime: Instant,
+        endTime: Instant,
+        pageSize: Int = readPageSize,
+        priority: CallPriority = CallPriority.FOREGROUND
+    ): Flow<List<ExerciseSessionRecord>> = readPages(ExerciseSessionRecord::class, startTime, endTime, pageSize, priority)
+    
+    suspend fun getChangesToken(
+        recordTypes: Set<KClass<out Record>>,
+        priority: CallPriority = CallPriority.FOREGROUND
+    ): String = withContext(Dispatchers.IO) {
+        scheduler.run(priority) {
+            healthConnectClient.getChangesToken(ChangesTokenRequest(recordTypes = recordTypes))
+        }
+    }
+    
+    suspend fun getChanges(
+        changesToken: String,
+        priority: CallPriority = CallPriority.FOREGROUND
+    ): ChangesResponse = withContext(Dispatchers.IO) {
+        scheduler.run(priority) { healthConnectClient.getChanges(changesToken) }
+    }
+    
+    private fun <T : Record> readPages(
+        recordType: KClass<T>,
+        startTime: Instant,
+        endTime: Instant,
+        pageSize: Int = readPageSize,
+        priority: CallPriority = CallPriority.FOREGROUND,
+        origins: Set<String> = emptySet()
+    ): Flow<List<T>> = flow {
+        require(pageSize in 1..MAX_PAGE_SIZE) { "pageSize must be between 1 and $MAX_PAGE_SIZE" }
+        var pageToken: String? = null
+        do {
+            val request = ReadRecordsRequest(
+                recordType = recordType,
+                timeRangeFilter = TimeRangeFilter.between(startTime, endTime),
+                // Unwanted sources are filtered by Health Connect and never cross IPC
+                dataOriginFilter = origins.map { DataOrigin(it) }.toSet(),
+                pageSize = pageSize,
+                pageToken = pageToken
+            )
+            val start = System.nanoTime()
+            val response = scheduler.run(priority) { healthConnectClient.readRecords(request) }
+            traceRecorder?.recordPage(recordType, startTime, endTime, response.records, elapsedMicros(start))
+            if (response.records.isNotEmpty()) {
+                emit(response.records)
+            }
+            pageToken = response.pageToken
+        } while (!pageToken.isNullOrEmpty())
+    }.flowOn(Dispatchers.IO)
+    
+    private fun elapsedMicros(startNanos: Long): Long = (System.nanoTime() - startNanos) / 1_000
+    
+    companion object {
+        const val DEFAULT_PAGE_SIZE = 1000
+        
+        // Upper bound Health Connect accepts for a single readRecords page
+        const val MAX_PAGE_SIZE = 5000
+        
+        const val DEFAULT_SHARD_PARALLELISM = 3
+        private const val SHARD_ATTEMPTS = 3
+        
+        private const val PERMISSION_PREFS_NAME = "health_connect_permissions"
+        private const val KEY_ALL_GRANTED = "all_granted"
     }
 }
\ No newline at end of file
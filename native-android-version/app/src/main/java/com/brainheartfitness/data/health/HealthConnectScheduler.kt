@@ -0,0 +1,148 @@
+package com.brainheartfitness.data.health
+
+import android.health.connect.HealthConnectException
+import android.os.Build
+import android.os.RemoteException
+import androidx.annotation.RequiresApi
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.io.IOException
+import java.time.Instant
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.min
+import kotlin.random.Random
+
+enum class CallPriority {
+    // Reads a screen is waiting on
+    FOREGROUND,
+    // Sync and maintenance work that can yield to the UI
+    BACKGROUND
+}
+
+sealed class ThrottleState {
+    object Normal : ThrottleState()
+    data class Throttled(val retryAt: Instant) : ThrottleState()
+}
+
+class HealthConnectThrottledException(cause: Throwable) :
+    Exception("Health Connect read quota exceeded", cause)
+
+// Every Health Connect call goes through here. Calls spend tokens from a shared budget
+// that refills over time, background calls leave a reserve for foreground reads, and a
+// call rejected for quota backs off with jitter before retrying. Tests shorten the timings.
+class HealthConnectScheduler(
+    private val bucketCapacity: Int = BUCKET_CAPACITY,
+    private val tokenIntervalMillis: Long = TOKEN_INTERVAL_MILLIS,
+    private val initialBackoffMillis: Long = INITIAL_BACKOFF_MILLIS
+) {
+    private val mutex = Mutex()
+    private var tokens = bucketCapacity.toDouble()
+    private var lastRefillNanos = System.nanoTime()
+    private val waitingForeground = AtomicInteger(0)
+    
+    private val _throttleState = MutableStateFlow<ThrottleState>(ThrottleState.Normal)
+    val throttleState: StateFlow<ThrottleState> = _throttleState.asStateFlow()
+    
+    suspend fun <T> run(priority: CallPriority = CallPriority.FOREGROUND, call: suspend () -> T): T {
+        var attempt = 0
+        while (true) {
+            acquire(priority)
+            try {
+                val result = call()
+                _throttleState.value = ThrottleState.Normal
+                return result
+            } catch (e: Exception) {
+                if (!isQuotaExceeded(e)) throw e
+                if (attempt >= MAX_RETRIES) {
+                    // Nothing is waiting to retry any more, the next call starts afresh
+                    _throttleState.value = ThrottleState.Normal
+                    throw HealthConnectThrottledException(e)
+                }
+                
+                val backoffMillis = backoffMillis(attempt++)
+                _throttleState.value = ThrottleState.Throttled(Instant.now().plusMillis(backoffMillis))
+                // Empty the bucket so other callers slow down too instead of hitting the limit
+                mutex.withLock { tokens = 0.0 }
+                delay(backoffMillis)
+            }
+        }
+    }
+    
+    private suspend fun acquire(priority: CallPriority) {
+        val isForeground = priority == CallPriority.FOREGROUND
+        if (isForeground) waitingForeground.incrementAndGet()
+        try {
+            while (true) {
+                val waitMillis = mutex.withLock {
+                    refill()
+                    val required = if (isForeground) 1.0 else 1.0 + FOREGROUND_RESERVE
+                    when {
+                        !isForeground && waitingForeground.get() > 0 -> tokenIntervalMillis
+                        tokens >= required -> {
+                            tokens -= 1.0
+                            0L
+                        }
+                        else -> ((required - tokens) * tokenIntervalMillis).toLong() + 1
+                    }
+                }
+                if (waitMillis == 0L) return
+                delay(waitMillis)
+            }
+        } finally {
+            if (isForeground) waitingForeground.decrementAndGet()
+        }
+    }
+    
+    private fun refill() {
+        val now = System.nanoTime()
+        val elapsedMillis = (now - lastRefillNanos) / 1_000_000.0
+        tokens = min(bucketCapacity.toDouble(), tokens + elapsedMillis / tokenIntervalMillis)
+        lastRefillNanos = now
+    }
+    
+    // Exponential backoff with jitter so throttled callers don't retry in lockstep. Also
+    // used between retries of failed reads that weren't throttled.
+    fun backoffMillis(attempt: Int): Long {
+        val ceiling = min(MAX_BACKOFF_MILLIS, initialBackoffMillis shl attempt)
+        return ceiling / 2 + Random.nextLong(ceiling / 2 + 1)
+    }
+    
+    // HealthConnectClient doesn't pass the platform exception on. From API 34 it converts a
+    // HealthConnectException to a standard type by error code, ERROR_RATE_LIMIT_EXCEEDED
+    // landing on IllegalStateException with only the message kept. Before that the APK
+    // provider reports it as a RemoteException with the same kind of message. So the
+    // types the client throws are matched by message, the platform type by code, and
+    // wrappers are looked through.
+    private fun isQuotaExceeded(e: Exception): Boolean =
+        generateSequence<Throwable>(e) { it.cause }.take(MAX_CAUSE_DEPTH).any(::isRateLimitException)
+    
+    private fun isRateLimitException(e: Throwable): Boolean = when {
+        Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE && isPlatformRateLimitException(e) -> true
+        e is IllegalStateException || e is RemoteException || e is IOException -> mentionsRateLimit(e.message)
+        else -> false
+    }
+    
+    @RequiresApi(Build.VERSION_CODES.UPSIDE_DOWN_CAKE)
+    private fun isPlatformRateLimitException(e: Throwable): Boolean =
+        e is HealthConnectException && e.errorCode == HealthConnectException.ERROR_RATE_LIMIT_EXCEEDED
+    
+    private fun mentionsRateLimit(message: String?): Boolean =
+        message != null && RATE_LIMIT_MESSAGES.any { message.contains(it, ignoreCase = true) }
+    
+    companion object {
+        const val BUCKET_CAPACITY = 30
+        const val TOKEN_INTERVAL_MILLIS = 500L
+        const val FOREGROUND_RESERVE = 10
+        const val MAX_RETRIES = 4
+        const val INITIAL_BACKOFF_MILLIS = 1_000L
+        const val MAX_BACKOFF_MILLIS = 30_000L
+        
+        private const val MAX_CAUSE_DEPTH = 8
+        // Health Connect words it "rate limited request quota has been exceeded"
+        private val RATE_LIMIT_MESSAGES = listOf("rate limit", "quota")
+    }
+}
\ No newline at end of file
@@ -0,0 +1,33 @@
+package com.brainheartfitness.data.health
+
+import androidx.health.connect.client.records.ExerciseSessionRecord
+import com.brainheartfitness.data.model.HeartRateStats
+import java.time.Duration
+import java.time.Instant
+import java.time.LocalDate
+
+// The reads the repository builds its summaries from. HealthConnectManager serves them
+// from Health Connect, ReplayHealthDataSource from a recorded trace.
+interface HealthDataSource {
+    // Live sources are backed by Health Connect, so HealthChangesSync can mirror them
+    // and serve the current week locally
+    val isLive: Boolean
+    
+    suspend fun getHeartRateSamples(
+        startTime: Instant,
+        endTime: Instant,
+        origins: Set<String> = emptySet()
+    ): HeartRateSampleBuffer
+    
+    suspend fun getExerciseData(startTime: Instant, endTime: Instant): List<ExerciseSessionRecord>
+    
+    suspend fun getHeartRateStats(
+        startTime: Instant,
+        endTime: Instant,
+        bucket: Duration = Duration.ofDays(1),
+        origins: Set<String> = emptySet()
+    ): List<HeartRateStats>?
+    
+    // endDate is exclusive
+    suspend fun getDailyStepTotals(startDate: LocalDate, endDate: LocalDate): Map<LocalDate, Long>?
+}
\ No newline at end of file
@@ -0,0 +1,356 @@
+package com.brainheartfitness.data.health
+
+import android.content.Context
+import com.brainheartfitness.BuildConfig
+import com.brainheartfitness.data.model.HeartRateStats
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.time.Instant
+
+// A heart rate record as Health Connect returned it, samples kept as primitives
+class TracedHeartRate(
+    val recordId: String,
+    override val origin: String,
+    override val startMillis: Long,
+    override val endMillis: Long,
+    val sampleMillis: LongArray,
+    val bpms: IntArray
+) : HeartRateSpan {
+    override val sampleCount: Int get() = sampleMillis.size
+    
+    override fun sampleMillisAt(index: Int): Long = sampleMillis[index]
+    
+    override fun bpmAt(index: Int): Int = bpms[index]
+    
+    fun shiftedBy(millis: Long) = TracedHeartRate(
+        recordId,
+        origin,
+        startMillis + millis,
+        endMillis + millis,
+        LongArray(sampleMillis.size) { sampleMillis[it] + millis },
+        bpms
+    )
+}
+
+data class TracedExercise(
+    val startMillis: Long,
+    val endMillis: Long,
+    val exerciseType: Int,
+    val title: String?
+)
+
+// One recorded call to Health Connect: the range asked for, how long it took and what came
+// back. Record reads are recorded a page at a time, unmerged, so a replay can apply any
+// origin filter and source policy to them the way a live read would.
+sealed class TraceEntry {
+    abstract val elapsedMicros: Long
+    
+    class HeartRatePage(
+        val startMillis: Long,
+        val endMillis: Long,
+        val records: List<TracedHeartRate>,
+        override val elapsedMicros: Long
+    ) : TraceEntry()
+    
+    data class Exercise(
+        val startMillis: Long,
+        val endMillis: Long,
+        val sessions: List<TracedExercise>,
+        override val elapsedMicros: Long
+    ) : TraceEntry()
+    
+    data class HeartRateAggregates(
+        val startMillis: Long,
+        val endMillis: Long,
+        val bucketMillis: Long,
+        val origins: Set<String>,
+        // Null when the read failed on the recording device
+        val stats: List<HeartRateStats>?,
+        override val elapsedMicros: Long
+    ) : TraceEntry()
+    
+    data class StepTotals(
+        val startEpochDay: Long,
+        val endEpochDay: Long,
+        // Null when the read failed on the recording device
+        val totals: Map<Long, Long>?,
+        override val elapsedMicros: Long
+    ) : TraceEntry()
+}
+
+// A recorded workload. On disk: a header with the recording time, then entries appended
+// as the reads happen. Sample timestamps are varint deltas from the record's start and BPMs
+// varints, so a day of 1 Hz heart rate costs a few hundred KB instead of megabytes of records.
+class HealthTrace(
+    val recordedAtMillis: Long,
+    val entries: List<TraceEntry>
+) {
+    companion object {
+        const val DIRECTORY = "health_trace"
+        // adb push a trace here to have debug builds replay it instead of reading Health Connect
+        const val REPLAY_FILE = "replay.trace"
+        // Touch this file to have debug builds record their reads into RECORDING_FILE
+        const val RECORD_MARKER = "record"
+        // Touch this file to have debug builds serve SyntheticHealthData, for devices
+        // without Health Connect data of their own
+        const val SYNTHETIC_MARKER = "synthetic"
+        const val RECORDING_FILE = "recorded.trace"
+        
+        internal const val MAGIC = 0x48525452 // "HRTR"
+        internal const val VERSION = 2
+        internal const val KIND_HEART_RATE_PAGE = 1
+        internal const val KIND_EXERCISE = 2
+        internal const val KIND_STEP_TOTALS = 3
+        internal const val KIND_HEART_RATE_AGGREGATES = 4
+        
+        // A trace cut short by the process dying keeps every entry written before it
+        fun read(file: File): HealthTrace {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (input.readInt() != MAGIC) throw IOException("Not a health trace: $file")
+                val version = input.readByte().toInt()
+                if (version != VERSION) throw IOException("Unsupported health trace version $version")
+                val recordedAtMillis = input.readLong()
+                val entries = mutableListOf<TraceEntry>()
+                while (true) {
+                    val kind = input.read()
+                    if (kind == -1) break
+                    try {
+                        entries.add(readEntry(kind, input))
+                    } catch (e: EOFException) {
+                        break
+                    }
+                }
+                return HealthTrace(recordedAtMillis, entries)
+            }
+        }
+        
+        // Debug builds replay a pushed trace or serve synthetic data when asked to. Release
+        // builds always read Health Connect.
+        fun selectDataSource(
+            context: Context,
+            live: HealthDataSource,
+            synthetic: HealthDataSource,
+            heartRateSourceMerger: HeartRateSourceMerger
+        ): HealthDataSource {
+            if (!BuildConfig.DEBUG) return live
+            val directory = File(context.filesDir, DIRECTORY)
+            val replayFile = File(directory, REPLAY_FILE)
+            return when {
+                replayFile.exists() -> ReplayHealthDataSource(replayFile, heartRateSourceMerger)
+                File(directory, SYNTHETIC_MARKER).exists() -> synthetic
+                else -> live
+            }
+        }
+        
+        // Debug builds record what HealthConnectManager reads when asked to, null otherwise
+        fun recorderFor(context: Context): HealthTraceRecorder? {
+            if (!BuildConfig.DEBUG) return null
+            val directory = File(context.filesDir, DIRECTORY)
+            if (!File(directory, RECORD_MARKER).exists()) return null
+            return HealthTraceRecorder(HealthTraceWriter(File(directory, RECORDING_FILE)))
+        }
+        
+        private fun readEntry(kind: Int, input: DataInputStream): TraceEntry {
+            val elapsedMicros = input.readVarLong()
+            return when (kind) {
+                KIND_HEART_RATE_PAGE -> {
+                    val startMillis = input.readLong()
+                    val endMillis = input.readLong()
+                    val records = List(input.readVarLong().toInt()) {
+                        val recordId = input.readUTF()
+                        val origin = input.readUTF()
+                        val recordStart = input.readLong()
+                        val recordEnd = input.readLong()
+                        val count = input.readVarLong().toInt()
+                        val sampleMillis = LongArray(count)
+                        val bpms = IntArray(count)
+                        var time = recordStart
+                        for (i in 0 until count) {
+                            time += input.readVarLong()
+                            sampleMillis[i] = time
+                            bpms[i] = input.readVarLong().toInt()
+                        }
+                        TracedHeartRate(recordId, origin, recordStart, recordEnd, sampleMillis, bpms)
+                    }
+                    TraceEntry.HeartRatePage(startMillis, endMillis, records, elapsedMicros)
+                }
+                KIND_EXERCISE -> {
+                    val startMillis = input.readLong()
+                    val endMillis = input.readLong()
+                    val sessions = List(input.readVarLong().toInt()) {
+                        TracedExercise(
+                            startMillis = input.readLong(),
+                            endMillis = input.readLong(),
+                            exerciseType = input.readVarLong().toInt(),
+                            title = if (input.readBoolean()) input.readUTF() else null
+                        )
+                    }
+                    TraceEntry.Exercise(startMillis, endMillis, sessions, elapsedMicros)
+                }
+                KIND_HEART_RATE_AGGREGATES -> {
+                    val startMillis = input.readLong()
+                    val endMillis = input.readLong()
+                    val bucketMillis = input.readLong()
+                    val origins = List(input.readVarLong().toInt()) { input.readUTF() }.toSet()
+                    val stats = if (input.readBoolean()) {
+                        List(input.readVarLong().toInt()) {
+                            HeartRateStats(
+                                startTime = Instant.ofEpochMilli(input.readLong()),
+                                endTime = Instant.ofEpochMilli(input.readLong()),
+                                averageBpm = input.readVarLong().toInt(),
+                                minBpm = input.readVarLong().toInt(),
+                                maxBpm = input.readVarLong().toInt(),
+                                sampleCount = input.readVarLong()
+                            )
+                        }
+                    } else {
+                        null
+                    }
+                    TraceEntry.HeartRateAggregates(startMillis, endMillis, bucketMillis, origins, stats, elapsedMicros)
+                }
+                KIND_STEP_TOTALS -> {
+                    val startEpochDay = input.readLong()
+                    val endEpochDay = input.readLong()
+                    val totals = if (input.readBoolean()) {
+                        (0 until input.readVarLong().toInt()).associate { input.readLong() to input.readVarLong() }
+                    } else {
+                        null
+                    }
+                    TraceEntry.StepTotals(startEpochDay, endEpochDay, totals, elapsedMicros)
+                }
+                else -> throw IOException("Unknown health trace entry $kind")
+            }
+        }
+    }
+}
+
+// Appends entries to a trace file, writing the header when the file is new. Each entry
+// is flushed as it is written so a killed process loses at most the read in flight.
+class HealthTraceWriter(private val file: File) {
+    private var stream: DataOutputStream? = null
+    
+    @Synchronized
+    fun write(entry: TraceEntry) {
+        val output = stream ?: open().also { stream = it }
+        when (entry) {
+            is TraceEntry.HeartRatePage -> {
+                output.writeByte(HealthTrace.KIND_HEART_RATE_PAGE)
+                output.writeVarLong(entry.elapsedMicros)
+                output.writeLong(entry.startMillis)
+                output.writeLong(entry.endMillis)
+                output.writeVarLong(entry.records.size.toLong())
+                entry.records.forEach { record ->
+                    output.writeUTF(record.recordId)
+                    output.writeUTF(record.origin)
+                    output.writeLong(record.startMillis)
+                    output.writeLong(record.endMillis)
+                    output.writeVarLong(record.sampleCount.toLong())
+                    var previous = record.startMillis
+                    for (i in 0 until record.sampleCount) {
+                        output.writeVarLong(record.sampleMillis[i] - previous)
+                        output.writeVarLong(record.bpms[i].toLong())
+                        previous = record.sampleMillis[i]
+                    }
+                }
+            }
+            is TraceEntry.Exercise -> {
+                output.writeByte(HealthTrace.KIND_EXERCISE)
+                output.writeVarLong(entry.elapsedMicros)
+                output.writeLong(entry.startMillis)
+                output.writeLong(entry.endMillis)
+                output.writeVarLong(entry.sessions.size.toLong())
+                entry.sessions.forEach { session ->
+                    output.writeLong(session.startMillis)
+                    output.writeLong(session.endMillis)
+                    output.writeVarLong(session.exerciseType.toLong())
+                    output.writeBoolean(session.title != null)
+                    session.title?.let(output::writeUTF)
+                }
+            }
+            is TraceEntry.HeartRateAggregates -> {
+                output.writeByte(HealthTrace.KIND_HEART_RATE_AGGREGATES)
+                output.writeVarLong(entry.elapsedMicros)
+                output.writeLong(entry.startMillis)
+                output.writeLong(entry.endMillis)
+                output.writeLong(entry.bucketMillis)
+                output.writeVarLong(entry.origins.size.toLong())
+                entry.origins.forEach(output::writeUTF)
+                output.writeBoolean(entry.stats != null)
+                entry.stats?.let { stats ->
+                    output.writeVarLong(stats.size.toLong())
+                    stats.forEach { bucket ->
+                        output.writeLong(bucket.startTime.toEpochMilli())
+                        output.writeLong(bucket.endTime.toEpochMilli())
+                        output.writeVarLong(bucket.averageBpm.toLong())
+                        output.writeVarLong(bucket.minBpm.toLong())
+                        output.writeVarLong(bucket.maxBpm.toLong())
+                        output.writeVarLong(bucket.sampleCount)
+                    }
+                }
+            }
+            is TraceEntry.StepTotals -> {
+                output.writeByte(HealthTrace.KIND_STEP_TOTALS)
+                output.writeVarLong(entry.elapsedMicros)
+                output.writeLong(entry.startEpochDay)
+                output.writeLong(entry.endEpochDay)
+                output.writeBoolean(entry.totals != null)
+                entry.totals?.let { totals ->
+                    output.writeVarLong(totals.size.toLong())
+                    totals.forEach { (epochDay, steps) ->
+                        output.writeLong(epochDay)
+                        output.writeVarLong(steps)
+                    }
+                }
+            }
+        }
+        output.flush()
+    }
+    
+    @Synchronized
+    fun close() {
+        stream?.close()
+        stream = null
+    }
+    
+    private fun open(): DataOutputStream {
+        file.parentFile?.mkdirs()
+        val isNew = !file.exists() || file.length() == 0L
+        val output = DataOutputStream(BufferedOutputStream(FileOutputStream(file, true)))
+        if (isNew) {
+            output.writeInt(HealthTrace.MAGIC)
+            output.writeByte(HealthTrace.VERSION)
+            output.writeLong(System.currentTimeMillis())
+        }
+        return output
+    }
+}
+
+// Unsigned LEB128, seven bits per byte. Deltas and BPMs are small and never negative; a
+// negative one still round-trips, in ten bytes.
+private fun DataOutputStream.writeVarLong(value: Long) {
+    var remaining = value
+    while (remaining and 0x7FL.inv() != 0L) {
+        writeByte(((remaining and 0x7F) or 0x80).toInt())
+        remaining = remaining ushr 7
+    }
+    writeByte(remaining.toInt())
+}
+
+private fun DataInputStream.readVarLong(): Long {
+    var result = 0L
+    var shift = 0
+    while (true) {
+        val byte = readUnsignedByte()
+        result = result or ((byte and 0x7F).toLong() shl shift)
+        if (byte and 0x80 == 0) return result
+        shift += 7
+        if (shift > 63) throw IOException("Malformed varint in health trace")
+    }
+}
\ No newline at end of file
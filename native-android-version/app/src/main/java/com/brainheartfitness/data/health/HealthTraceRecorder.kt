@@ -0,0 +1,110 @@
+package com.brainheartfitness.data.health
+
+import androidx.health.connect.client.records.ExerciseSessionRecord
+import androidx.health.connect.client.records.HeartRateRecord
+import androidx.health.connect.client.records.Record
+import com.brainheartfitness.data.model.HeartRateStats
+import java.io.IOException
+import java.time.Duration
+import java.time.Instant
+import java.time.LocalDate
+import kotlin.reflect.KClass
+
+// Debug-only: HealthConnectManager hands it each page and aggregate it reads from Health
+// Connect, with how long the call took, and it appends them to a trace that
+// ReplayHealthDataSource can serve back offline. The app runs as it would without it,
+// HealthChangesSync included, so the sync's reads end up in the trace too.
+class HealthTraceRecorder(private val writer: HealthTraceWriter) {
+    @Volatile
+    private var recording = true
+    
+    // Steps are replayed from their recorded daily totals, so their pages aren't kept
+    fun recordPage(
+        recordType: KClass<out Record>,
+        startTime: Instant,
+        endTime: Instant,
+        records: List<Record>,
+        elapsedMicros: Long
+    ) {
+        val entry = when (recordType) {
+            HeartRateRecord::class -> TraceEntry.HeartRatePage(
+                startMillis = startTime.toEpochMilli(),
+                endMillis = endTime.toEpochMilli(),
+                records = records.filterIsInstance<HeartRateRecord>().map { record ->
+                    TracedHeartRate(
+                        recordId = record.metadata.id,
+                        origin = record.metadata.dataOrigin.packageName,
+                        startMillis = record.startTime.toEpochMilli(),
+                        endMillis = record.endTime.toEpochMilli(),
+                        sampleMillis = LongArray(record.samples.size) { record.samples[it].time.toEpochMilli() },
+                        bpms = IntArray(record.samples.size) { record.samples[it].beatsPerMinute.toInt() }
+                    )
+                },
+                elapsedMicros = elapsedMicros
+            )
+            ExerciseSessionRecord::class -> TraceEntry.Exercise(
+                startMillis = startTime.toEpochMilli(),
+                endMillis = endTime.toEpochMilli(),
+                sessions = records.filterIsInstance<ExerciseSessionRecord>().map { session ->
+                    TracedExercise(
+                        startMillis = session.startTime.toEpochMilli(),
+                        endMillis = session.endTime.toEpochMilli(),
+                        exerciseType = session.exerciseType,
+                        title = session.title
+                    )
+                },
+                elapsedMicros = elapsedMicros
+            )
+            else -> return
+        }
+        record(entry)
+    }
+    
+    fun recordHeartRateStats(
+        startTime: Instant,
+        endTime: Instant,
+        bucket: Duration,
+        origins: Set<String>,
+        stats: List<HeartRateStats>?,
+        elapsedMicros: Long
+    ) {
+        record(
+            TraceEntry.HeartRateAggregates(
+                startMillis = startTime.toEpochMilli(),
+                endMillis = endTime.toEpochMilli(),
+                bucketMillis = bucket.toMillis(),
+                origins = origins,
+                stats = stats,
+                elapsedMicros = elapsedMicros
+            )
+        )
+    }
+    
+    fun recordStepTotals(
+        startDate: LocalDate,
+        endDate: LocalDate,
+        totals: Map<LocalDate, Long>?,
+        elapsedMicros: Long
+    ) {
+        record(
+            TraceEntry.StepTotals(
+                startEpochDay = startDate.toEpochDay(),
+                endEpochDay = endDate.toEpochDay(),
+                totals = totals?.mapKeys { (date, _) -> date.toEpochDay() },
+                elapsedMicros = elapsedMicros
+            )
+        )
+    }
+    
+    // Called from the manager's IO dispatcher
+    private fun record(entry: TraceEntry) {
+        if (!recording) return
+        try {
+            writer.write(entry)
+        } catch (e: IOException) {
+            // A full disk shouldn't break the screen being recorded, just stop recording
+            recording = false
+            runCatching { writer.close() }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,124 @@
+package com.brainheartfitness.data.health
+
+// Receives heart rate samples as primitives so hot loops never box a timestamp or BPM
+fun interface SampleSink {
+    fun accept(epochMillis: Long, bpm: Int)
+    
+    // Merges call this instead, for sinks that keep track of which source a sample came from
+    fun acceptFrom(epochMillis: Long, bpm: Int, origin: String) = accept(epochMillis, bpm)
+}
+
+// Heart rate samples in primitive arrays: each timestamp as a millisecond delta from the
+// previous sample, each BPM as a short and its source as a short index, about 8 bytes per
+// sample instead of a HeartRateRecord.Sample and its Instant. Samples must be appended in
+// time order.
+class HeartRateSampleBuffer(initialCapacity: Int = DEFAULT_CAPACITY) : SampleSink {
+    var size = 0
+        private set
+    var firstEpochMillis = 0L
+        private set
+    var lastEpochMillis = 0L
+        private set
+    
+    @PublishedApi
+    internal var deltas = IntArray(maxOf(initialCapacity, 1))
+    @PublishedApi
+    internal var bpms = ShortArray(maxOf(initialCapacity, 1))
+    @PublishedApi
+    internal var originIndexes = ShortArray(maxOf(initialCapacity, 1))
+    
+    // Sources named once each, merges only ever see a handful
+    @PublishedApi
+    internal val origins = ArrayList<String>()
+    
+    // Gaps too long for an Int delta (about 24 days) are stored here, in order
+    @PublishedApi
+    internal var longGaps = LongArray(0)
+    private var longGapCount = 0
+    
+    val isEmpty: Boolean get() = size == 0
+    
+    override fun accept(epochMillis: Long, bpm: Int) = append(epochMillis, bpm)
+    
+    override fun acceptFrom(epochMillis: Long, bpm: Int, origin: String) = append(epochMillis, bpm, origin)
+    
+    fun append(epochMillis: Long, bpm: Int, origin: String? = null) {
+        val delta = if (size == 0) 0L else epochMillis - lastEpochMillis
+        require(delta >= 0) { "Samples must be appended in time order" }
+        ensureCapacity(size + 1)
+        if (delta > Int.MAX_VALUE) {
+            if (longGapCount == longGaps.size) {
+                longGaps = longGaps.copyOf(maxOf(4, longGapCount * 2))
+            }
+            longGaps[longGapCount++] = delta
+            deltas[size] = LONG_GAP
+        } else {
+            deltas[size] = delta.toInt()
+        }
+        bpms[size] = bpm.toShort()
+        originIndexes[size] = if (origin == null) NO_ORIGIN else originIndexOf(origin)
+        if (size == 0) firstEpochMillis = epochMillis
+        lastEpochMillis = epochMillis
+        size++
+    }
+    
+    fun bpmAt(index: Int): Int {
+        if (index !in 0 until size) throw IndexOutOfBoundsException("index $index, size $size")
+        return bpms[index].toInt()
+    }
+    
+    // Walks the samples in time order, rebuilding timestamps from the deltas as it goes
+    inline fun forEach(action: (epochMillis: Long, bpm: Int) -> Unit) {
+        var time = firstEpochMillis
+        var longGapIndex = 0
+        for (i in 0 until size) {
+            val delta = deltas[i]
+            time += if (delta == LONG_GAP) longGaps[longGapIndex++] else delta.toLong()
+            action(time, bpms[i].toInt())
+        }
+    }
+    
+    // The same walk with the source of each sample, null for samples appended without one
+    inline fun forEachWithOrigin(action: (epochMillis: Long, bpm: Int, origin: String?) -> Unit) {
+        var time = firstEpochMillis
+        var longGapIndex = 0
+        for (i in 0 until size) {
+            val delta = deltas[i]
+            time += if (delta == LONG_GAP) longGaps[longGapIndex++] else delta.toLong()
+            val originIndex = originIndexes[i].toInt()
+            action(time, bpms[i].toInt(), if (originIndex < 0) null else origins[originIndex])
+        }
+    }
+    
+    fun clear() {
+        size = 0
+        longGapCount = 0
+        origins.clear()
+        firstEpochMillis = 0L
+        lastEpochMillis = 0L
+    }
+    
+    private fun ensureCapacity(required: Int) {
+        if (required <= deltas.size) return
+        val newCapacity = maxOf(required, deltas.size + (deltas.size shr 1))
+        deltas = deltas.copyOf(newCapacity)
+        bpms = bpms.copyOf(newCapacity)
+        originIndexes = originIndexes.copyOf(newCapacity)
+    }
+    
+    private fun originIndexOf(origin: String): Short {
+        val index = origins.indexOf(origin)
+        if (index >= 0) return index.toShort()
+        origins.add(origin)
+        return (origins.size - 1).toShort()
+    }
+    
+    companion object {
+        const val DEFAULT_CAPACITY = 1024
+        
+        @PublishedApi
+        internal const val LONG_GAP = -1
+        
+        private const val NO_ORIGIN: Short = -1
+    }
+}
\ No newline at end of file
@@ -0,0 +1,139 @@
+package com.brainheartfitness.data.health
+
+import androidx.health.connect.client.records.HeartRateRecord
+import java.util.PriorityQueue
+
+data class SourcePriorityPolicy(
+    // Package names from most to least trusted, unlisted sources rank below all of them
+    val preferredOrigins: List<String> = emptyList(),
+    // When not empty only these sources are read at all, the filter is pushed down to
+    // Health Connect so other sources never cross IPC
+    val allowedOrigins: Set<String> = emptySet()
+) {
+    fun isAllowed(packageName: String): Boolean =
+        allowedOrigins.isEmpty() || packageName in allowedOrigins
+    
+    // Negative when the first source is preferred. Ties between unlisted sources are
+    // broken by package name so the merge is deterministic.
+    fun compareOrigins(first: String, second: String): Int {
+        val byPreference = preferenceIndex(first).compareTo(preferenceIndex(second))
+        return if (byPreference != 0) byPreference else first.compareTo(second)
+    }
+    
+    private fun preferenceIndex(packageName: String): Int =
+        preferredOrigins.indexOf(packageName).takeIf { it >= 0 } ?: Int.MAX_VALUE
+}
+
+// One source's run of heart rate samples in time order: a HeartRateRecord, or a record as a
+// trace keeps it
+interface HeartRateSpan {
+    val origin: String
+    val startMillis: Long
+    val endMillis: Long
+    val sampleCount: Int
+    
+    fun sampleMillisAt(index: Int): Long
+    
+    fun bpmAt(index: Int): Int
+}
+
+// Merges heart rate records written by several sources (e.g. a watch and a phone) into
+// one sample stream. Where spans overlap, samples from the best ranked source win and
+// lower ranked sources only fill the gaps, so overlapping data is never counted twice.
+class HeartRateSourceMerger(
+    val policy: SourcePriorityPolicy
+) {
+    fun newSession(sink: SampleSink): MergeSession = MergeSession(policy, sink)
+    
+    fun mergeToBuffer(records: List<HeartRateRecord>): HeartRateSampleBuffer {
+        val buffer = HeartRateSampleBuffer()
+        val session = newSession(buffer)
+        records.sortedBy { it.startTime }.forEach(session::add)
+        session.finish()
+        return buffer
+    }
+    
+    // Streaming merge: records are fed in start time order, as Health Connect pages them,
+    // and a heap over the open records releases samples in time order. A record is only
+    // held until its last sample has been emitted.
+    class MergeSession internal constructor(
+        private val policy: SourcePriorityPolicy,
+        private val sink: SampleSink
+    ) {
+        private class Cursor(private val span: HeartRateSpan) {
+            val origin: String = span.origin
+            val startMillis = span.startMillis
+            val endMillis = span.endMillis
+            private var index = 0
+            var sampleMillis = if (span.sampleCount == 0) Long.MAX_VALUE else span.sampleMillisAt(0)
+                private set
+            val hasSample: Boolean get() = index < span.sampleCount
+            val bpm: Int get() = span.bpmAt(index)
+            
+            fun advance(): Boolean {
+                if (++index >= span.sampleCount) return false
+                sampleMillis = span.sampleMillisAt(index)
+                return true
+            }
+        }
+        
+        private class RecordSpan(private val record: HeartRateRecord) : HeartRateSpan {
+            override val origin: String = record.metadata.dataOrigin.packageName
+            override val startMillis = record.startTime.toEpochMilli()
+            override val endMillis = record.endTime.toEpochMilli()
+            override val sampleCount: Int get() = record.samples.size
+            
+            override fun sampleMillisAt(index: Int): Long = record.samples[index].time.toEpochMilli()
+            
+            override fun bpmAt(index: Int): Int = record.samples[index].beatsPerMinute.toInt()
+        }
+        
+        private val pending = PriorityQueue<Cursor>(
+            compareBy<Cursor> { it.sampleMillis }.then { a, b -> policy.compareOrigins(a.origin, b.origin) }
+        )
+        private val open = ArrayList<Cursor>()
+        private var lastStartMillis = Long.MIN_VALUE
+        private var lastEmittedMillis = Long.MIN_VALUE
+        
+        fun add(record: HeartRateRecord) = add(RecordSpan(record))
+        
+        fun add(span: HeartRateSpan) {
+            if (!policy.isAllowed(span.origin)) return
+            val cursor = Cursor(span)
+            require(cursor.startMillis >= lastStartMillis) { "Records must be added in start time order" }
+            lastStartMillis = cursor.startMillis
+            
+            // Nothing added from here on starts earlier, so older samples are final
+            drainBefore(cursor.startMillis)
+            open.add(cursor)
+            if (cursor.hasSample) pending.add(cursor)
+        }
+        
+        fun finish() {
+            drainBefore(Long.MAX_VALUE)
+            open.clear()
+        }
+        
+        private fun drainBefore(limitMillis: Long) {
+            while (true) {
+                val cursor = pending.peek() ?: return
+                val time = cursor.sampleMillis
+                if (time >= limitMillis) return
+                pending.poll()
+                open.removeAll { it.endMillis < time }
+                
+                val shadowed = open.any { other ->
+                    other !== cursor &&
+                        other.startMillis <= time && time <= other.endMillis &&
+                        policy.compareOrigins(other.origin, cursor.origin) < 0
+                }
+                // Equal timestamps are duplicates, the preferred one was polled first
+                if (!shadowed && time > lastEmittedMillis) {
+                    sink.acceptFrom(time, cursor.bpm, cursor.origin)
+                    lastEmittedMillis = time
+                }
+                if (cursor.advance()) pending.add(cursor)
+            }
+        }
+    }
+}
\ No newline at end of file
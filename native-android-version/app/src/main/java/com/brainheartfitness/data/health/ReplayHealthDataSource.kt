@@ -0,0 +1,218 @@
+package com.brainheartfitness.data.health
+
+import androidx.health.connect.client.records.ExerciseSessionRecord
+import androidx.health.connect.client.records.metadata.Metadata
+import com.brainheartfitness.data.model.HeartRateStats
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.time.Duration
+import java.time.Instant
+import java.time.LocalDate
+import java.time.ZoneOffset
+import kotlin.math.max
+import kotlin.math.min
+
+// Serves a recorded trace back as if it were Health Connect. Everything the trace holds is
+// shifted forward by whole weeks to the present, so "this week" shows the recorded week
+// with weekdays and times of day intact. Heart rate is kept as the records Health Connect
+// returned and merged per read like a live one, so origin filters and the source policy
+// apply. Reads can be given the recorded latency too.
+class ReplayHealthDataSource(
+    private val file: File,
+    private val heartRateSourceMerger: HeartRateSourceMerger,
+    private val replayLatency: Boolean = true
+) : HealthDataSource {
+    private class Replay(
+        // One per record id however many pages returned it, sorted by start
+        val heartRate: List<TracedHeartRate>,
+        val exercise: List<TracedExercise>,
+        val heartRateStats: Map<StatsQuery, List<HeartRateStats>?>,
+        val stepTotals: Map<Long, Long>,
+        val latencyMicros: Map<Class<out TraceEntry>, Long>
+    )
+    
+    private data class StatsQuery(
+        val startMillis: Long,
+        val endMillis: Long,
+        val bucketMillis: Long,
+        val origins: Set<String>
+    )
+    
+    override val isLive: Boolean = false
+    
+    private val loadMutex = Mutex()
+    private var replay: Replay? = null
+    
+    override suspend fun getHeartRateSamples(
+        startTime: Instant,
+        endTime: Instant,
+        origins: Set<String>
+    ): HeartRateSampleBuffer {
+        val replay = load()
+        simulateLatency(replay, TraceEntry.HeartRatePage::class.java)
+        return merge(replay, startTime.toEpochMilli(), endTime.toEpochMilli(), origins)
+    }
+    
+    override suspend fun getExerciseData(startTime: Instant, endTime: Instant): List<ExerciseSessionRecord> {
+        val replay = load()
+        simulateLatency(replay, TraceEntry.Exercise::class.java)
+        return replay.exercise
+            .filter { it.endMillis > startTime.toEpochMilli() && it.startMillis < endTime.toEpochMilli() }
+            .map { session ->
+                ExerciseSessionRecord(
+                    startTime = Instant.ofEpochMilli(session.startMillis),
+                    startZoneOffset = ZoneOffset.UTC,
+                    endTime = Instant.ofEpochMilli(session.endMillis),
+                    endZoneOffset = ZoneOffset.UTC,
+                    exerciseType = session.exerciseType,
+                    title = session.title,
+                    metadata = Metadata.manualEntry()
+                )
+            }
+    }
+    
+    // Served as recorded when the trace holds the same aggregate, otherwise computed from the
+    // merged samples the way Health Connect buckets its aggregates
+    override suspend fun getHeartRateStats(
+        startTime: Instant,
+        endTime: Instant,
+        bucket: Duration,
+        origins: Set<String>
+    ): List<HeartRateStats>? {
+        val replay = load()
+        simulateLatency(replay, TraceEntry.HeartRateAggregates::class.java)
+        val startMillis = startTime.toEpochMilli()
+        val endMillis = endTime.toEpochMilli()
+        val bucketMillis = bucket.toMillis()
+        val query = StatsQuery(startMillis, endMillis, bucketMillis, origins)
+        if (query in replay.heartRateStats) return replay.heartRateStats[query]
+        
+        val stats = mutableListOf<HeartRateStats>()
+        var bucketStart = startMillis
+        var count = 0L
+        var sum = 0L
+        var minBpm = Int.MAX_VALUE
+        var maxBpm = Int.MIN_VALUE
+        fun flush() {
+            if (count > 0) {
+                stats.add(
+                    HeartRateStats(
+                        startTime = Instant.ofEpochMilli(bucketStart),
+                        endTime = Instant.ofEpochMilli(min(bucketStart + bucketMillis, endMillis)),
+                        averageBpm = (sum / count).toInt(),
+                        minBpm = minBpm,
+                        maxBpm = maxBpm,
+                        sampleCount = count
+                    )
+                )
+            }
+            count = 0
+            sum = 0
+            minBpm = Int.MAX_VALUE
+            maxBpm = Int.MIN_VALUE
+        }
+        // Whole records are merged, so samples outside the range are skipped here
+        merge(replay, startMillis, endMillis, origins).forEach { epochMillis, bpm ->
+            if (epochMillis < startMillis || epochMillis >= endMillis) return@forEach
+            if (epochMillis >= bucketStart + bucketMillis) {
+                flush()
+                bucketStart += (epochMillis - bucketStart) / bucketMillis * bucketMillis
+            }
+            count++
+            sum += bpm
+            minBpm = min(minBpm, bpm)
+            maxBpm = max(maxBpm, bpm)
+        }
+        flush()
+        return stats
+    }
+    
+    override suspend fun getDailyStepTotals(startDate: LocalDate, endDate: LocalDate): Map<LocalDate, Long>? {
+        val replay = load()
+        simulateLatency(replay, TraceEntry.StepTotals::class.java)
+        return (startDate.toEpochDay() until endDate.toEpochDay())
+            .mapNotNull { epochDay -> replay.stepTotals[epochDay]?.let { LocalDate.ofEpochDay(epochDay) to it } }
+            .toMap()
+    }
+    
+    // The records a live read of the range would return, from the requested sources only
+    private fun merge(replay: Replay, startMillis: Long, endMillis: Long, origins: Set<String>): HeartRateSampleBuffer {
+        val buffer = HeartRateSampleBuffer()
+        val session = heartRateSourceMerger.newSession(buffer)
+        for (record in replay.heartRate) {
+            if (record.startMillis >= endMillis) break
+            if (record.endMillis <= startMillis) continue
+            if (origins.isNotEmpty() && record.origin !in origins) continue
+            session.add(record)
+        }
+        session.finish()
+        return buffer
+    }
+    
+    private suspend fun load(): Replay = loadMutex.withLock {
+        replay ?: withContext(Dispatchers.IO) { buildReplay(HealthTrace.read(file)) }.also { replay = it }
+    }
+    
+    private fun buildReplay(trace: HealthTrace): Replay {
+        val weeks = max(0L, (System.currentTimeMillis() - trace.recordedAtMillis) / WEEK_MILLIS)
+        val shiftMillis = weeks * WEEK_MILLIS
+        val shiftDays = weeks * 7
+        
+        // Overlapping reads and the sync return the same records more than once
+        val heartRate = LinkedHashMap<String, TracedHeartRate>()
+        trace.entries.filterIsInstance<TraceEntry.HeartRatePage>().forEach { entry ->
+            entry.records.forEach { heartRate[it.recordId] = it }
+        }
+        
+        val exercise = trace.entries.filterIsInstance<TraceEntry.Exercise>()
+            .flatMap { it.sessions }
+            .distinct()
+            .map { it.copy(startMillis = it.startMillis + shiftMillis, endMillis = it.endMillis + shiftMillis) }
+            .sortedBy { it.startMillis }
+        
+        val heartRateStats = HashMap<StatsQuery, List<HeartRateStats>?>()
+        trace.entries.filterIsInstance<TraceEntry.HeartRateAggregates>().forEach { entry ->
+            val query = StatsQuery(
+                entry.startMillis + shiftMillis,
+                entry.endMillis + shiftMillis,
+                entry.bucketMillis,
+                entry.origins
+            )
+            heartRateStats[query] = entry.stats?.map { bucket ->
+                bucket.copy(
+                    startTime = bucket.startTime.plusMillis(shiftMillis),
+                    endTime = bucket.endTime.plusMillis(shiftMillis)
+                )
+            }
+        }
+        
+        val stepTotals = HashMap<Long, Long>()
+        trace.entries.filterIsInstance<TraceEntry.StepTotals>().forEach { entry ->
+            entry.totals?.forEach { (epochDay, steps) -> stepTotals[epochDay + shiftDays] = steps }
+        }
+        
+        val latencyMicros = trace.entries.groupBy { it::class.java }
+            .mapValues { (_, entries) -> entries.sumOf { it.elapsedMicros } / entries.size }
+        
+        return Replay(
+            heartRate.values.map { it.shiftedBy(shiftMillis) }.sortedBy { it.startMillis },
+            exercise,
+            heartRateStats,
+            stepTotals,
+            latencyMicros
+        )
+    }
+    
+    private suspend fun simulateLatency(replay: Replay, kind: Class<out TraceEntry>) {
+        if (!replayLatency) return
+        replay.latencyMicros[kind]?.let { delay(it / 1_000) }
+    }
+    
+    companion object {
+        private const val WEEK_MILLIS = 7 * 24 * 60 * 60 * 1000L
+    }
+}
\ No newline at end of file
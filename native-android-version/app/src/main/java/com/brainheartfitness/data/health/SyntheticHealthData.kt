@@ -0,0 +1,263 @@
+package com.brainheartfitness.data.health
+
+import androidx.health.connect.client.records.ExerciseSessionRecord
+import androidx.health.connect.client.records.metadata.Metadata
+import com.brainheartfitness.data.model.HeartRateStats
+import java.time.Duration
+import java.time.Instant
+import java.time.LocalDate
+import java.time.ZoneId
+import java.time.ZoneOffset
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+import kotlin.random.Random
+
+data class SyntheticProfile(
+    val seed: Long = 42L,
+    // One sample per interval while the device is worn
+    val sampleIntervalMillis: Long = 5 * 60 * 1000L,
+    val restingBpm: Int = 62,
+    val maxBpm: Int = 185,
+    val workoutsPerWeek: Int = 4,
+    val workoutMinutes: IntRange = 25..75,
+    // Chance that the device is off-wrist for a stretch on a given day
+    val offWristChancePerDay: Double = 0.3,
+    val chargingMinutesPerDay: Int = 60,
+    val dailySteps: IntRange = 3000..14000,
+    val zoneId: ZoneId = ZoneOffset.UTC
+) {
+    companion object {
+        val SPARSE = SyntheticProfile()
+        val DENSE_1HZ = SyntheticProfile(sampleIntervalMillis = 1000L)
+    }
+}
+
+data class SyntheticWorkout(
+    val startTime: Instant,
+    val endTime: Instant,
+    val targetBpm: Int
+)
+
+// Deterministic, high-volume synthetic health data for debug builds and JVM tests.
+// Each day is generated from its own seed, so any range yields the same samples no matter
+// where the read starts, and a year at 1 Hz (tens of millions of samples) streams into a
+// SampleSink without ever being held as objects. Debug builds serve it in place of Health
+// Connect when asked to, see HealthTrace.selectDataSource.
+class SyntheticHealthData(
+    val profile: SyntheticProfile = SyntheticProfile.SPARSE
+) : HealthDataSource {
+    private class DayPlan(
+        val workouts: List<SyntheticWorkout>,
+        val gaps: List<LongRange>,
+        val steps: Int
+    )
+    
+    // Nothing to mirror, the data never changes
+    override val isLive: Boolean = false
+    
+    fun readHeartRateSamples(startTime: Instant, endTime: Instant, sink: SampleSink) {
+        val interval = profile.sampleIntervalMillis
+        val startMillis = startTime.toEpochMilli()
+        val endMillis = endTime.toEpochMilli()
+        var date = startTime.atZone(profile.zoneId).toLocalDate()
+        while (dayStartMillis(date) < endMillis) {
+            val dayStart = dayStartMillis(date)
+            val dayEnd = dayStartMillis(date.plusDays(1))
+            val plan = planFor(date)
+            val noise = Random(daySeed(date) xor NOISE_SALT)
+            var drift = 0.0
+            var gapIndex = 0
+            var workoutIndex = 0
+            
+            // Always walk from the start of the day so the noise, and so every sample, is the
+            // same however the requested range is cut
+            var time = dayStart
+            val limit = min(dayEnd, endMillis)
+            while (time < limit) {
+                while (gapIndex < plan.gaps.size && plan.gaps[gapIndex].last < time) gapIndex++
+                if (gapIndex < plan.gaps.size && time in plan.gaps[gapIndex]) {
+                    // Resume on the first grid point after the gap
+                    time += ((plan.gaps[gapIndex].last - time) / interval + 1) * interval
+                    continue
+                }
+                while (workoutIndex < plan.workouts.size && plan.workouts[workoutIndex].endTime.toEpochMilli() <= time) {
+                    workoutIndex++
+                }
+                
+                drift = (drift + noise.nextDouble(-1.0, 1.0)).coerceIn(-8.0, 8.0)
+                val workout = plan.workouts.getOrNull(workoutIndex)?.takeIf { it.startTime.toEpochMilli() <= time }
+                val bpm = if (workout != null) {
+                    workoutBpm(workout, time) + drift / 2
+                } else {
+                    baselineBpm(time - dayStart) + drift
+                }
+                if (time >= startMillis) {
+                    sink.accept(time, bpm.roundToInt().coerceIn(35, profile.maxBpm))
+                }
+                time += interval
+            }
+            date = date.plusDays(1)
+        }
+    }
+    
+    // The buffer grows as samples arrive, off-wrist gaps and all, rather than being sized
+    // up front for a full range at the sample interval. Every sample comes from one unnamed
+    // source, so there are no origins to filter on.
+    override suspend fun getHeartRateSamples(
+        startTime: Instant,
+        endTime: Instant,
+        origins: Set<String>
+    ): HeartRateSampleBuffer {
+        val buffer = HeartRateSampleBuffer()
+        readHeartRateSamples(startTime, endTime, buffer)
+        return buffer
+    }
+    
+    fun getWorkouts(startTime: Instant, endTime: Instant): List<SyntheticWorkout> =
+        daysIn(startTime, endTime).flatMap { planFor(it).workouts }
+            .filter { it.endTime > startTime && it.startTime < endTime }
+    
+    // The workouts as Health Connect would return them, so exercise reads fall back too
+    fun getExerciseSessions(startTime: Instant, endTime: Instant): List<ExerciseSessionRecord> =
+        getWorkouts(startTime, endTime).map { workout ->
+            ExerciseSessionRecord(
+                startTime = workout.startTime,
+                startZoneOffset = profile.zoneId.rules.getOffset(workout.startTime),
+                endTime = workout.endTime,
+                endZoneOffset = profile.zoneId.rules.getOffset(workout.endTime),
+                exerciseType = ExerciseSessionRecord.EXERCISE_TYPE_RUNNING,
+                metadata = Metadata.manualEntry()
+            )
+        }
+    
+    override suspend fun getExerciseData(startTime: Instant, endTime: Instant): List<ExerciseSessionRecord> =
+        getExerciseSessions(startTime, endTime)
+    
+    // endDate is exclusive, like HealthConnectManager.getDailyStepTotals
+    override suspend fun getDailyStepTotals(startDate: LocalDate, endDate: LocalDate): Map<LocalDate, Long> =
+        generateSequence(startDate) { it.plusDays(1) }
+            .takeWhile { it < endDate }
+            .associateWith { planFor(it).steps.toLong() }
+    
+    // Bucketed from the samples the way Health Connect buckets its aggregates, empty
+    // buckets are left out
+    override suspend fun getHeartRateStats(
+        startTime: Instant,
+        endTime: Instant,
+        bucket: Duration,
+        origins: Set<String>
+    ): List<HeartRateStats> {
+        val endMillis = endTime.toEpochMilli()
+        val bucketMillis = bucket.toMillis()
+        val stats = mutableListOf<HeartRateStats>()
+        var bucketStart = startTime.toEpochMilli()
+        var count = 0L
+        var sum = 0L
+        var minBpm = Int.MAX_VALUE
+        var maxBpm = Int.MIN_VALUE
+        fun flush() {
+            if (count == 0L) return
+            stats.add(
+                HeartRateStats(
+                    startTime = Instant.ofEpochMilli(bucketStart),
+                    endTime = Instant.ofEpochMilli(min(bucketStart + bucketMillis, endMillis)),
+                    averageBpm = (sum / count).toInt(),
+                    minBpm = minBpm,
+                    maxBpm = maxBpm,
+                    sampleCount = count
+                )
+            )
+            count = 0L
+            sum = 0L
+            minBpm = Int.MAX_VALUE
+            maxBpm = Int.MIN_VALUE
+        }
+        readHeartRateSamples(startTime, endTime) { epochMillis, bpm ->
+            if (epochMillis >= bucketStart + bucketMillis) {
+                flush()
+                bucketStart += (epochMillis - bucketStart) / bucketMillis * bucketMillis
+            }
+            count++
+            sum += bpm
+            minBpm = min(minBpm, bpm)
+            maxBpm = max(maxBpm, bpm)
+        }
+        flush()
+        return stats
+    }
+    
+    private fun planFor(date: LocalDate): DayPlan {
+        val random = Random(daySeed(date))
+        val dayStart = dayStartMillis(date)
+        
+        val workouts = mutableListOf<SyntheticWorkout>()
+        if (random.nextDouble() < profile.workoutsPerWeek / 7.0) {
+            // Morning or evening session
+            val startMinute = if (random.nextBoolean()) random.nextInt(6 * 60, 9 * 60) else random.nextInt(17 * 60, 20 * 60)
+            val duration = random.nextInt(profile.workoutMinutes.first, profile.workoutMinutes.last + 1)
+            val reserve = profile.maxBpm - profile.restingBpm
+            val intensity = random.nextDouble(0.55, 0.85)
+            val start = dayStart + startMinute * MINUTE_MILLIS
+            workouts.add(
+                SyntheticWorkout(
+                    startTime = Instant.ofEpochMilli(start),
+                    endTime = Instant.ofEpochMilli(start + duration * MINUTE_MILLIS),
+                    targetBpm = profile.restingBpm + (reserve * intensity).roundToInt()
+                )
+            )
+        }
+        
+        val gaps = mutableListOf<LongRange>()
+        // Charging in the evening, then an occasional off-wrist stretch during the day
+        val chargeStart = dayStart + random.nextInt(20 * 60, 23 * 60) * MINUTE_MILLIS
+        gaps.add(chargeStart until chargeStart + profile.chargingMinutesPerDay * MINUTE_MILLIS)
+        if (random.nextDouble() < profile.offWristChancePerDay) {
+            val offStart = dayStart + random.nextInt(10 * 60, 16 * 60) * MINUTE_MILLIS
+            gaps.add(offStart until offStart + random.nextInt(15, 180) * MINUTE_MILLIS)
+        }
+        gaps.sortBy { it.first }
+        
+        val steps = random.nextInt(profile.dailySteps.first, profile.dailySteps.last + 1)
+        return DayPlan(workouts, gaps, steps)
+    }
+    
+    // Lower while asleep, higher and livelier in the afternoon
+    private fun baselineBpm(millisIntoDay: Long): Double {
+        val hour = millisIntoDay / HOUR_MILLIS.toDouble()
+        val circadian = -cos((hour - 4.0) / 24.0 * 2 * PI)
+        return profile.restingBpm + 6 + circadian * 8
+    }
+    
+    // Warm up, hold around the target, cool down
+    private fun workoutBpm(workout: SyntheticWorkout, time: Long): Double {
+        val start = workout.startTime.toEpochMilli()
+        val end = workout.endTime.toEpochMilli()
+        val rampMillis = min(10 * MINUTE_MILLIS, (end - start) / 4)
+        val level = when {
+            time < start + rampMillis -> (time - start).toDouble() / rampMillis
+            time > end - rampMillis -> (end - time).toDouble() / rampMillis
+            else -> 1.0
+        }
+        return profile.restingBpm + 15 + (workout.targetBpm - profile.restingBpm - 15) * level
+    }
+    
+    private fun daysIn(startTime: Instant, endTime: Instant): List<LocalDate> {
+        val first = startTime.atZone(profile.zoneId).toLocalDate()
+        val last = endTime.minusMillis(1).atZone(profile.zoneId).toLocalDate()
+        return generateSequence(first) { it.plusDays(1) }.takeWhile { it <= last }.toList()
+    }
+    
+    private fun dayStartMillis(date: LocalDate): Long =
+        date.atStartOfDay(profile.zoneId).toInstant().toEpochMilli()
+    
+    private fun daySeed(date: LocalDate): Long = profile.seed * 1_000_003L + date.toEpochDay()
+    
+    companion object {
+        private const val MINUTE_MILLIS = 60 * 1000L
+        private const val HOUR_MILLIS = 60 * MINUTE_MILLIS
+        private const val NOISE_SALT = 0x5DEECE66DL
+    }
+}
\ No newline at end of file
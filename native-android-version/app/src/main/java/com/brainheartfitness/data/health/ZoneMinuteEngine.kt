@@ -0,0 +1,171 @@
+package com.brainheartfitness.data.health
+
+import com.brainheartfitness.data.local.BpmHistogram
+import com.brainheartfitness.data.model.HeartRateSession
+import com.brainheartfitness.data.model.ZoneProfile
+import java.time.Instant
+import kotlin.math.roundToInt
+
+data class ZoneMinuteSummary(
+    val sampleCount: Long,
+    val averageBpm: Int,
+    val minBpm: Int,
+    val maxBpm: Int,
+    val zoneMinutes: Map<String, Int>,
+    val sessions: List<HeartRateSession>
+)
+
+// Stats, zone minutes and sessions from one pass over a time-ordered sample stream. Each
+// sample is credited the time until the next one, capped the same way BpmHistogram does,
+// to the zone the profile's table puts its BPM in. A gap longer than sessionGapMillis ends
+// a session, unless session windows are given, then each window with samples in it is one.
+// The state is a few counters and two arrays of milliseconds per zone, so nothing is
+// allocated per sample, only one HeartRateSession per session found.
+class ZoneMinuteEngine(
+    private val profile: ZoneProfile = ZoneProfile.DEFAULT,
+    private val sessionGapMillis: Long = DEFAULT_SESSION_GAP_MILLIS,
+    // Shorter stretches still count towards the totals, they just aren't reported as sessions
+    private val minSessionMillis: Long = DEFAULT_MIN_SESSION_MILLIS,
+    // [start, end) in epoch millis, in time order and not overlapping. Samples outside every
+    // window only count towards the totals.
+    private val sessionWindows: List<Pair<Long, Long>> = emptyList()
+) : SampleSink {
+    private val zoneMillis = LongArray(profile.zoneCount)
+    private val sessionZoneMillis = LongArray(profile.zoneCount)
+    private val sessions = mutableListOf<HeartRateSession>()
+    
+    private var count = 0L
+    private var sum = 0L
+    private var min = Int.MAX_VALUE
+    private var max = Int.MIN_VALUE
+    
+    private var lastEpochMillis = Long.MIN_VALUE
+    private var lastZoneIndex = -1
+    
+    private var windowIndex = 0
+    private var inWindow = false
+    
+    private var sessionStart = 0L
+    private var sessionCount = 0
+    private var sessionSum = 0L
+    private var sessionMin = Int.MAX_VALUE
+    private var sessionMax = Int.MIN_VALUE
+    
+    override fun accept(epochMillis: Long, bpm: Int) {
+        if (count > 0) {
+            val gap = epochMillis - lastEpochMillis
+            require(gap >= 0) { "Samples must be accepted in time order" }
+            if (sessionWindows.isEmpty()) {
+                val credited = credit(gap)
+                if (gap > sessionGapMillis) closeSession(lastEpochMillis + credited)
+            } else {
+                creditWindowed(epochMillis)
+            }
+        }
+        val inSession = if (sessionWindows.isEmpty()) true else enterWindow(epochMillis)
+        
+        count++
+        sum += bpm
+        if (bpm < min) min = bpm
+        if (bpm > max) max = bpm
+        if (inSession) {
+            if (sessionCount == 0) {
+                sessionStart = if (sessionWindows.isEmpty()) epochMillis else sessionWindows[windowIndex].first
+            }
+            sessionCount++
+            sessionSum += bpm
+            if (bpm < sessionMin) sessionMin = bpm
+            if (bpm > sessionMax) sessionMax = bpm
+        }
+        
+        lastEpochMillis = epochMillis
+        lastZoneIndex = profile.zoneIndexOf(bpm)
+    }
+    
+    // Credits the last sample up to endMillis, the end of the range that was fed in. A window
+    // still open there, a workout in progress, ends its session at endMillis too.
+    fun finish(endMillis: Long): ZoneMinuteSummary {
+        if (count > 0 && sessionWindows.isNotEmpty()) {
+            creditWindowed(endMillis)
+            if (inWindow) closeSession(minOf(sessionWindows[windowIndex].second, endMillis))
+        } else if (sessionCount > 0) {
+            val credited = credit(endMillis - lastEpochMillis)
+            closeSession(lastEpochMillis + credited)
+        }
+        return ZoneMinuteSummary(
+            sampleCount = count,
+            averageBpm = if (count == 0L) 0 else (sum.toDouble() / count).roundToInt(),
+            minBpm = if (count == 0L) 0 else min,
+            maxBpm = if (count == 0L) 0 else max,
+            zoneMinutes = toZoneMinutes(zoneMillis),
+            sessions = sessions.toList()
+        )
+    }
+    
+    private fun credit(elapsedMillis: Long): Long {
+        val credited = elapsedMillis.coerceIn(0L, BpmHistogram.MAX_SAMPLE_CREDIT_MILLIS)
+        if (lastZoneIndex >= 0) {
+            zoneMillis[lastZoneIndex] += credited
+            sessionZoneMillis[lastZoneIndex] += credited
+        }
+        return credited
+    }
+    
+    // Credits the last sample up to untilMillis, its session share stopping at the end of
+    // its window, and closes the session once untilMillis reaches that end
+    private fun creditWindowed(untilMillis: Long) {
+        val credited = (untilMillis - lastEpochMillis).coerceIn(0L, BpmHistogram.MAX_SAMPLE_CREDIT_MILLIS)
+        if (lastZoneIndex >= 0) zoneMillis[lastZoneIndex] += credited
+        if (!inWindow) return
+        val windowEnd = sessionWindows[windowIndex].second
+        if (lastZoneIndex >= 0) sessionZoneMillis[lastZoneIndex] += minOf(credited, windowEnd - lastEpochMillis)
+        if (untilMillis >= windowEnd) {
+            closeSession(windowEnd)
+            inWindow = false
+        }
+    }
+    
+    // Moves to the window holding epochMillis, if any. Windows passed without samples are skipped.
+    private fun enterWindow(epochMillis: Long): Boolean {
+        if (inWindow) return true
+        while (windowIndex < sessionWindows.size && sessionWindows[windowIndex].second <= epochMillis) {
+            windowIndex++
+        }
+        if (windowIndex == sessionWindows.size) return false
+        inWindow = epochMillis >= sessionWindows[windowIndex].first
+        return inWindow
+    }
+    
+    private fun closeSession(endMillis: Long) {
+        if (sessionCount > 0 && endMillis - sessionStart >= minSessionMillis) {
+            sessions.add(
+                HeartRateSession(
+                    startTime = Instant.ofEpochMilli(sessionStart),
+                    endTime = Instant.ofEpochMilli(endMillis),
+                    averageBpm = (sessionSum.toDouble() / sessionCount).roundToInt(),
+                    maxBpm = sessionMax,
+                    minBpm = sessionMin,
+                    zoneMinutes = toZoneMinutes(sessionZoneMillis)
+                )
+            )
+        }
+        sessionCount = 0
+        sessionSum = 0L
+        sessionMin = Int.MAX_VALUE
+        sessionMax = Int.MIN_VALUE
+        sessionZoneMillis.fill(0L)
+    }
+    
+    private fun toZoneMinutes(millis: LongArray): Map<String, Int> =
+        profile.zones.withIndex().associate { (index, zone) ->
+            zone.id to (millis[index] / MINUTE_MILLIS.toDouble()).roundToInt()
+        }
+    
+    companion object {
+        // As the React Native version splits sessions
+        const val DEFAULT_SESSION_GAP_MILLIS = 5 * 60 * 1000L
+        const val DEFAULT_MIN_SESSION_MILLIS = 10 * 60 * 1000L
+        
+        private const val MINUTE_MILLIS = 60 * 1000L
+    }
+}
\ No newline at end of file
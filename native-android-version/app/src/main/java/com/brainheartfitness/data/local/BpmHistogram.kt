@@ -0,0 +1,79 @@
+package com.brainheartfitness.data.local
+
+import com.brainheartfitness.data.health.SampleSink
+import com.brainheartfitness.data.model.ZoneProfile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.math.roundToInt
+
+// Seconds spent at each BPM from 0 to 255. Zone boundaries aren't baked in, so any zone
+// definition can be evaluated over a day in 256 steps instead of rescanning its samples.
+// Fed a time-ordered stream: each sample is credited the time until the next one, capped
+// so a watch taken off overnight doesn't turn one reading into hours.
+class BpmHistogram private constructor(private val seconds: IntArray) : SampleSink {
+    // Millisecond remainders, so sub-second spacing still adds up to whole seconds
+    private val pendingMillis = LongArray(BINS)
+    private var lastEpochMillis = Long.MIN_VALUE
+    private var lastBin = -1
+    
+    constructor() : this(IntArray(BINS))
+    
+    val totalSeconds: Int get() = seconds.sum()
+    
+    override fun accept(epochMillis: Long, bpm: Int) {
+        credit(epochMillis)
+        lastEpochMillis = epochMillis
+        lastBin = bpm.coerceIn(0, BINS - 1)
+    }
+    
+    // Credits the last sample up to endMillis, the end of the range that was fed in
+    fun finish(endMillis: Long): BpmHistogram {
+        credit(endMillis)
+        lastBin = -1
+        for (bin in 0 until BINS) {
+            seconds[bin] += (pendingMillis[bin] / 1000).toInt()
+            pendingMillis[bin] %= 1000
+        }
+        return this
+    }
+    
+    // Histograms of several days add up to one for the whole range
+    fun add(other: BpmHistogram) {
+        for (bin in 0 until BINS) seconds[bin] += other.seconds[bin]
+    }
+    
+    // One pass over the bins, each classified by the profile's BPM table
+    fun zoneMinutes(profile: ZoneProfile = ZoneProfile.DEFAULT): Map<String, Int> {
+        val zoneSeconds = LongArray(profile.zoneCount)
+        for (bin in 0 until BINS) {
+            val zoneIndex = profile.zoneIndexOf(bin)
+            if (zoneIndex >= 0) zoneSeconds[zoneIndex] += seconds[bin].toLong()
+        }
+        return profile.zones.withIndex().associate { (index, zone) ->
+            zone.id to (zoneSeconds[index] / 60.0).roundToInt()
+        }
+    }
+    
+    // Fixed size on disk, 256 little-endian ints
+    fun toBytes(): ByteArray {
+        val buffer = ByteBuffer.allocate(BINS * Int.SIZE_BYTES).order(ByteOrder.LITTLE_ENDIAN)
+        seconds.forEach { buffer.putInt(it) }
+        return buffer.array()
+    }
+    
+    private fun credit(untilMillis: Long) {
+        if (lastBin < 0) return
+        val elapsed = (untilMillis - lastEpochMillis).coerceIn(0L, MAX_SAMPLE_CREDIT_MILLIS)
+        pendingMillis[lastBin] += elapsed
+    }
+    
+    companion object {
+        const val BINS = 256
+        const val MAX_SAMPLE_CREDIT_MILLIS = 60 * 1000L
+        
+        fun fromBytes(bytes: ByteArray): BpmHistogram {
+            val buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN)
+            return BpmHistogram(IntArray(BINS) { if (buffer.remaining() >= Int.SIZE_BYTES) buffer.getInt() else 0 })
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,34 @@
+package com.brainheartfitness.data.local
+
+import androidx.room.Database
+import androidx.room.RoomDatabase
+
+@Database(
+    entities = [
+        HeartRateChunkEntity::class,
+        OriginEntity::class,
+        CoveredRangeEntity::class,
+        HeartRateRollupEntity::class,
+        DailyBpmHistogramEntity::class,
+        StoreStateEntity::class,
+        SummaryCacheEntity::class,
+        SealedDayEntity::class,
+        KnownRecordEntity::class,
+        SyncStateEntity::class
+    ],
+    version = 1,
+    exportSchema = false
+)
+abstract class HealthDatabase : RoomDatabase() {
+    abstract fun heartRateSampleDao(): HeartRateSampleDao
+    
+    abstract fun summaryCacheDao(): SummaryCacheDao
+    
+    abstract fun sealedDayDao(): SealedDayDao
+    
+    abstract fun knownRecordDao(): KnownRecordDao
+    
+    companion object {
+        const val NAME = "health.db"
+    }
+}
\ No newline at end of file
@@ -0,0 +1,175 @@
+package com.brainheartfitness.data.local
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+
+// Merged samples of one fixed time window, packed by HeartRateChunkCodec. The header
+// columns bound the samples in time, so a scan can pass over a chunk without decoding it.
+@Entity(tableName = "heart_rate_chunks")
+class HeartRateChunkEntity(
+    @PrimaryKey
+    @ColumnInfo(name = "chunk_start")
+    val chunkStart: Long,
+    @ColumnInfo(name = "first_millis")
+    val firstMillis: Long,
+    @ColumnInfo(name = "last_millis")
+    val lastMillis: Long,
+    @ColumnInfo(name = "sample_count")
+    val sampleCount: Int,
+    val data: ByteArray
+) {
+    companion object {
+        const val CHUNK_MILLIS = 60 * 60 * 1000L
+        
+        fun chunkStartOf(epochMillis: Long): Long = epochMillis - Math.floorMod(epochMillis, CHUNK_MILLIS)
+    }
+}
+
+// Source apps by package name, so each sample stores a small id instead of the name
+@Entity(
+    tableName = "origins",
+    indices = [Index(value = ["package_name"], unique = true)]
+)
+data class OriginEntity(
+    @PrimaryKey(autoGenerate = true)
+    val id: Int = 0,
+    @ColumnInfo(name = "package_name")
+    val packageName: String
+)
+
+// Time ranges whose samples are complete in the store and can be read without Health Connect
+@Entity(
+    tableName = "covered_ranges",
+    indices = [Index(value = ["start_millis"])]
+)
+data class CoveredRangeEntity(
+    @PrimaryKey(autoGenerate = true)
+    val id: Long = 0,
+    @ColumnInfo(name = "start_millis")
+    val startMillis: Long,
+    @ColumnInfo(name = "end_millis")
+    val endMillis: Long
+)
+
+// Heart rate rolled up per minute, rewritten with the samples under it. Once compaction has
+// dropped the raw samples of a day these are its downsampled history.
+@Entity(tableName = "heart_rate_rollups")
+data class HeartRateRollupEntity(
+    @PrimaryKey
+    @ColumnInfo(name = "bucket_start")
+    val bucketStart: Long,
+    @ColumnInfo(name = "sample_count")
+    val sampleCount: Int,
+    @ColumnInfo(name = "bpm_sum")
+    val bpmSum: Long,
+    @ColumnInfo(name = "min_bpm")
+    val minBpm: Int,
+    @ColumnInfo(name = "max_bpm")
+    val maxBpm: Int
+) {
+    fun averageBpm(): Int = if (sampleCount == 0) 0 else (bpmSum / sampleCount).toInt()
+}
+
+// A local day's BpmHistogram, one fixed-size blob per day. Zone minutes for any zone
+// definition are read from these.
+@Entity(tableName = "daily_bpm_histograms")
+class DailyBpmHistogramEntity(
+    @PrimaryKey
+    @ColumnInfo(name = "day_start")
+    val dayStart: Long,
+    val seconds: ByteArray
+)
+
+// Small values the store keeps about itself, such as how far history has been compacted
+@Entity(tableName = "store_state")
+data class StoreStateEntity(
+    @PrimaryKey
+    val key: String,
+    val value: Long
+)
+
+// A computed summary kept across launches by SummaryCache. The key is the query and the
+// zone and goal versions it was computed with, the millis bound what data it depends on.
+@Entity(
+    tableName = "summary_cache",
+    primaryKeys = ["kind", "start_date", "end_date", "zone_profile_version", "goals_version"],
+    indices = [Index(value = ["start_millis"])]
+)
+class SummaryCacheEntity(
+    val kind: Int,
+    @ColumnInfo(name = "start_date")
+    val startDate: Long,
+    @ColumnInfo(name = "end_date")
+    val endDate: Long,
+    @ColumnInfo(name = "zone_profile_version")
+    val zoneProfileVersion: Long,
+    @ColumnInfo(name = "goals_version")
+    val goalsVersion: Long,
+    @ColumnInfo(name = "start_millis")
+    val startMillis: Long,
+    @ColumnInfo(name = "end_millis")
+    val endMillis: Long,
+    val data: ByteArray
+)
+
+// A sealed day's aggregates as Health Connect reported them once the day had settled,
+// served instead of asking again until a change inside the day unseals it
+@Entity(tableName = "sealed_days")
+data class SealedDayEntity(
+    @PrimaryKey
+    @ColumnInfo(name = "epoch_day")
+    val epochDay: Long,
+    @ColumnInfo(name = "day_start")
+    val dayStart: Long,
+    @ColumnInfo(name = "day_end")
+    val dayEnd: Long,
+    @ColumnInfo(name = "sample_count")
+    val sampleCount: Long,
+    @ColumnInfo(name = "average_bpm")
+    val averageBpm: Int,
+    @ColumnInfo(name = "min_bpm")
+    val minBpm: Int,
+    @ColumnInfo(name = "max_bpm")
+    val maxBpm: Int,
+    val steps: Long
+)
+
+// The time range of a record the sync has seen, kept across launches so a deletion, which
+// only carries the record id, can still be placed after a restart
+@Entity(
+    tableName = "known_records",
+    indices = [Index(value = ["end_millis"])]
+)
+data class KnownRecordEntity(
+    @PrimaryKey
+    @ColumnInfo(name = "record_id")
+    val recordId: String,
+    val type: Int,
+    @ColumnInfo(name = "start_millis")
+    val startMillis: Long,
+    @ColumnInfo(name = "end_millis")
+    val endMillis: Long
+) {
+    companion object {
+        const val HEART_RATE = 0
+        const val STEPS = 1
+        const val EXERCISE = 2
+    }
+}
+
+// Where HealthChangesSync left off: the changes token to resume from, the start of the window
+// it mirrors into the store and how far that is read. A single row, kept in the same database
+// as what was derived from it, so a wiped database seeds again instead of resuming.
+@Entity(tableName = "sync_state")
+data class SyncStateEntity(
+    @PrimaryKey
+    val id: Int = 0,
+    @ColumnInfo(name = "changes_token")
+    val changesToken: String,
+    @ColumnInfo(name = "window_start")
+    val windowStart: Long,
+    @ColumnInfo(name = "synced_until")
+    val syncedUntil: Long
+)
\ No newline at end of file
@@ -0,0 +1,172 @@
+package com.brainheartfitness.data.local
+
+import java.io.IOException
+
+// Samples of one chunk in column form, grown as they're appended. Decoding writes
+// straight into these arrays, nothing is allocated per sample.
+internal class SampleColumns(initialCapacity: Int = DEFAULT_CAPACITY) {
+    var size = 0
+        private set
+    var times = LongArray(maxOf(initialCapacity, 1))
+        private set
+    var bpms = IntArray(maxOf(initialCapacity, 1))
+        private set
+    var originIds = IntArray(maxOf(initialCapacity, 1))
+        private set
+    
+    fun append(epochMillis: Long, bpm: Int, originId: Int) {
+        ensureCapacity(size + 1)
+        times[size] = epochMillis
+        bpms[size] = bpm
+        originIds[size] = originId
+        size++
+    }
+    
+    // Takes in samples already written past the end of the arrays
+    fun extend(count: Int) {
+        ensureCapacity(size + count)
+        size += count
+    }
+    
+    fun clear() {
+        size = 0
+    }
+    
+    fun ensureCapacity(capacity: Int) {
+        if (capacity <= times.size) return
+        val newCapacity = maxOf(capacity, times.size * 2)
+        times = times.copyOf(newCapacity)
+        bpms = bpms.copyOf(newCapacity)
+        originIds = originIds.copyOf(newCapacity)
+    }
+    
+    companion object {
+        private const val DEFAULT_CAPACITY = 256
+    }
+}
+
+// Packs the samples of one chunk window into bytes. Three streams follow each other:
+// timestamps as the first offset from the chunk start and then delta-of-deltas, BPMs as
+// the first value and then deltas, and origins as (id, run length) pairs. Signed values
+// are zigzag varints, so a steady 1 Hz stream costs about two bytes per sample.
+internal object HeartRateChunkCodec {
+    fun encode(chunkStart: Long, columns: SampleColumns): HeartRateChunkEntity {
+        val size = columns.size
+        val times = columns.times
+        val bpms = columns.bpms
+        val originIds = columns.originIds
+        val output = ByteWriter(size * 2 + 16)
+        
+        var previousDelta = 0L
+        output.writeVarLong(times[0] - chunkStart)
+        for (i in 1 until size) {
+            val delta = times[i] - times[i - 1]
+            output.writeSignedVarLong(delta - previousDelta)
+            previousDelta = delta
+        }
+        
+        output.writeVarLong(bpms[0].toLong())
+        for (i in 1 until size) {
+            output.writeSignedVarLong((bpms[i] - bpms[i - 1]).toLong())
+        }
+        
+        var runStart = 0
+        for (i in 1..size) {
+            if (i == size || originIds[i] != originIds[runStart]) {
+                output.writeVarLong(originIds[runStart].toLong())
+                output.writeVarLong((i - runStart).toLong())
+                runStart = i
+            }
+        }
+        
+        return HeartRateChunkEntity(
+            chunkStart = chunkStart,
+            firstMillis = times[0],
+            lastMillis = times[size - 1],
+            sampleCount = size,
+            data = output.toByteArray()
+        )
+    }
+    
+    // Appends the chunk's samples to columns, decoding straight into their arrays
+    fun decode(chunkStart: Long, sampleCount: Int, data: ByteArray, into: SampleColumns) {
+        if (sampleCount == 0) return
+        val offset = into.size
+        into.ensureCapacity(offset + sampleCount)
+        val times = into.times
+        val bpms = into.bpms
+        val originIds = into.originIds
+        val end = offset + sampleCount
+        val input = ByteReader(data)
+        
+        var time = chunkStart + input.readVarLong()
+        var delta = 0L
+        times[offset] = time
+        for (i in offset + 1 until end) {
+            delta += input.readSignedVarLong()
+            time += delta
+            times[i] = time
+        }
+        
+        var bpm = input.readVarLong().toInt()
+        bpms[offset] = bpm
+        for (i in offset + 1 until end) {
+            bpm += input.readSignedVarLong().toInt()
+            bpms[i] = bpm
+        }
+        
+        var filled = offset
+        while (filled < end) {
+            val originId = input.readVarLong().toInt()
+            val run = input.readVarLong().toInt()
+            if (run <= 0 || run > end - filled) throw IOException("Malformed heart rate chunk at $chunkStart")
+            originIds.fill(originId, filled, filled + run)
+            filled += run
+        }
+        into.extend(sampleCount)
+    }
+    
+    private class ByteWriter(initialCapacity: Int) {
+        private var bytes = ByteArray(maxOf(initialCapacity, 16))
+        private var size = 0
+        
+        fun writeVarLong(value: Long) {
+            var remaining = value
+            while (remaining and 0x7FL.inv() != 0L) {
+                writeByte(((remaining and 0x7F) or 0x80).toInt())
+                remaining = remaining ushr 7
+            }
+            writeByte(remaining.toInt())
+        }
+        
+        fun writeSignedVarLong(value: Long) = writeVarLong((value shl 1) xor (value shr 63))
+        
+        fun toByteArray(): ByteArray = bytes.copyOf(size)
+        
+        private fun writeByte(value: Int) {
+            if (size == bytes.size) bytes = bytes.copyOf(bytes.size * 2)
+            bytes[size++] = value.toByte()
+        }
+    }
+    
+    private class ByteReader(private val bytes: ByteArray) {
+        private var position = 0
+        
+        fun readVarLong(): Long {
+            var result = 0L
+            var shift = 0
+            while (true) {
+                if (position == bytes.size || shift > 63) throw IOException("Malformed varint in heart rate chunk")
+                val byte = bytes[position++].toInt()
+                result = result or ((byte and 0x7F).toLong() shl shift)
+                if (byte and 0x80 == 0) return result
+                shift += 7
+            }
+        }
+        
+        fun readSignedVarLong(): Long {
+            val value = readVarLong()
+            return (value ushr 1) xor -(value and 1)
+        }
+    }
+}
\ No newline at end of file
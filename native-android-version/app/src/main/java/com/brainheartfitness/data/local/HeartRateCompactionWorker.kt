@@ -0,0 +1,72 @@
+package com.brainheartfitness.data.local
+
+import android.content.Context
+import androidx.work.Constraints
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingPeriodicWorkPolicy
+import androidx.work.PeriodicWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import androidx.work.workDataOf
+import dagger.hilt.EntryPoint
+import dagger.hilt.InstallIn
+import dagger.hilt.android.EntryPointAccessors
+import dagger.hilt.components.SingletonComponent
+import kotlinx.coroutines.CancellationException
+import java.time.Duration
+import java.time.LocalDate
+import java.util.concurrent.TimeUnit
+
+// Daily, while charging and idle: drops raw samples older than the retention, keeping
+// their minute rollups, and returns a slice of the freed space to the file system
+class HeartRateCompactionWorker(
+    context: Context,
+    params: WorkerParameters
+) : CoroutineWorker(context, params) {
+    // WorkManager creates the worker, so the store comes from the Hilt graph directly
+    @EntryPoint
+    @InstallIn(SingletonComponent::class)
+    interface Dependencies {
+        fun heartRateSampleStore(): HeartRateSampleStore
+    }
+    
+    override suspend fun doWork(): Result {
+        val store = EntryPointAccessors.fromApplication(applicationContext, Dependencies::class.java)
+            .heartRateSampleStore()
+        val retentionDays = inputData.getLong(KEY_RAW_RETENTION_DAYS, DEFAULT_RAW_RETENTION.toDays())
+        return try {
+            store.compact(LocalDate.now().minusDays(retentionDays))
+            store.vacuum(VACUUM_PAGES_PER_RUN)
+            Result.success()
+        } catch (e: CancellationException) {
+            // Stopped by WorkManager, the constraints no longer hold
+            throw e
+        } catch (e: Exception) {
+            Result.retry()
+        }
+    }
+    
+    companion object {
+        private const val WORK_NAME = "heart_rate_compaction"
+        private const val KEY_RAW_RETENTION_DAYS = "raw_retention_days"
+        // 4 KB pages, about 4 MB a night
+        private const val VACUUM_PAGES_PER_RUN = 1024
+        
+        val DEFAULT_RAW_RETENTION: Duration = Duration.ofDays(90)
+        
+        fun schedule(context: Context, rawRetention: Duration = DEFAULT_RAW_RETENTION) {
+            val request = PeriodicWorkRequestBuilder<HeartRateCompactionWorker>(1, TimeUnit.DAYS)
+                .setInputData(workDataOf(KEY_RAW_RETENTION_DAYS to rawRetention.toDays()))
+                .setConstraints(
+                    Constraints.Builder()
+                        .setRequiresCharging(true)
+                        .setRequiresDeviceIdle(true)
+                        .build()
+                )
+                .build()
+            // UPDATE keeps the schedule but picks up a changed retention
+            WorkManager.getInstance(context)
+                .enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.UPDATE, request)
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,81 @@
+package com.brainheartfitness.data.local
+
+import android.database.Cursor
+import androidx.room.Dao
+import androidx.room.Delete
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+
+// Blocking on purpose: HeartRateSampleStore calls these on the IO dispatcher, inside its
+// own transactions, and streams the range scan cursor without mapping rows to objects
+@Dao
+interface HeartRateSampleDao {
+    // Chunks start at most one window before the range, the time bounds skip the rest
+    @Query("SELECT chunk_start, sample_count, data FROM heart_rate_chunks WHERE chunk_start > :startMillis - ${HeartRateChunkEntity.CHUNK_MILLIS} AND chunk_start < :endMillis AND last_millis >= :startMillis AND first_millis < :endMillis ORDER BY chunk_start")
+    fun scanChunks(startMillis: Long, endMillis: Long): Cursor
+    
+    @Query("SELECT * FROM heart_rate_chunks WHERE chunk_start = :chunkStart")
+    fun getChunk(chunkStart: Long): HeartRateChunkEntity?
+    
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun insertChunk(chunk: HeartRateChunkEntity)
+    
+    @Query("DELETE FROM heart_rate_chunks WHERE chunk_start = :chunkStart")
+    fun deleteChunk(chunkStart: Long)
+    
+    @Query("DELETE FROM heart_rate_chunks WHERE chunk_start < :chunkStart")
+    fun deleteChunksBefore(chunkStart: Long)
+    
+    @Query("SELECT id FROM origins WHERE package_name = :packageName")
+    fun findOriginId(packageName: String): Int?
+    
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    fun insertOrigin(origin: OriginEntity): Long
+    
+    @Query("SELECT COUNT(*) FROM covered_ranges WHERE start_millis <= :startMillis AND end_millis >= :endMillis")
+    fun countCoveringRanges(startMillis: Long, endMillis: Long): Int
+    
+    @Query("SELECT * FROM covered_ranges WHERE start_millis < :endMillis AND end_millis > :startMillis")
+    fun getOverlappingRanges(startMillis: Long, endMillis: Long): List<CoveredRangeEntity>
+    
+    // Overlapping or adjacent, the ranges a new range merges with
+    @Query("SELECT * FROM covered_ranges WHERE start_millis <= :endMillis AND end_millis >= :startMillis")
+    fun getTouchingRanges(startMillis: Long, endMillis: Long): List<CoveredRangeEntity>
+    
+    @Insert
+    fun insertCoveredRange(range: CoveredRangeEntity)
+    
+    @Insert
+    fun insertCoveredRanges(ranges: List<CoveredRangeEntity>)
+    
+    @Delete
+    fun deleteRanges(ranges: List<CoveredRangeEntity>)
+    
+    @Query("DELETE FROM covered_ranges")
+    fun deleteAllRanges()
+    
+    @Query("SELECT * FROM heart_rate_rollups WHERE bucket_start >= :startMillis AND bucket_start < :endMillis ORDER BY bucket_start")
+    fun getRollups(startMillis: Long, endMillis: Long): List<HeartRateRollupEntity>
+    
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun insertRollups(rollups: List<HeartRateRollupEntity>)
+    
+    @Query("DELETE FROM heart_rate_rollups WHERE bucket_start >= :startMillis AND bucket_start < :endMillis")
+    fun deleteRollups(startMillis: Long, endMillis: Long)
+    
+    @Query("SELECT * FROM daily_bpm_histograms WHERE day_start >= :startMillis AND day_start < :endMillis ORDER BY day_start")
+    fun getHistograms(startMillis: Long, endMillis: Long): List<DailyBpmHistogramEntity>
+    
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun insertHistogram(histogram: DailyBpmHistogramEntity)
+    
+    @Query("DELETE FROM daily_bpm_histograms WHERE day_start = :dayStart")
+    fun deleteHistogram(dayStart: Long)
+    
+    @Query("SELECT value FROM store_state WHERE `key` = :key")
+    fun getState(key: String): Long?
+    
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun setState(state: StoreStateEntity)
+}
\ No newline at end of file
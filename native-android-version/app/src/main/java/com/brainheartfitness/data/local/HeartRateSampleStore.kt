@@ -0,0 +1,221 @@
+package com.brainheartfitness.data.local
+
+import androidx.health.connect.client.records.HeartRateRecord
+import com.brainheartfitness.data.health.HeartRateSampleBuffer
+import com.brainheartfitness.data.health.HeartRateSourceMerger
+import com.brainheartfitness.data.health.SampleSink
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.time.Instant
+import java.time.LocalDate
+import java.time.ZoneId
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+// Merged heart rate samples persisted on device. A range is only read from here once it
+// has been written in full and marked covered, anything else still goes to Health Connect.
+class HeartRateSampleStore(
+    private val database: HealthDatabase,
+    private val heartRateSourceMerger: HeartRateSourceMerger,
+    private val sampleStorage: SampleStorage
+) {
+    private val dao = database.heartRateSampleDao()
+    private val originIds = ConcurrentHashMap<String, Int>()
+    
+    // Bumped by every invalidation, so samples read before one aren't stored after it
+    private val invalidationCount = AtomicLong(0)
+    
+    val generation: Long get() = invalidationCount.get()
+    
+    suspend fun isCovered(startTime: Instant, endTime: Instant): Boolean = withContext(Dispatchers.IO) {
+        dao.countCoveringRanges(startTime.toEpochMilli(), endTime.toEpochMilli()) > 0
+    }
+    
+    // Compacted history comes back as one sample per minute at the minute's average BPM
+    suspend fun getHeartRateSamples(startTime: Instant, endTime: Instant): HeartRateSampleBuffer = withContext(Dispatchers.IO) {
+        val startMillis = startTime.toEpochMilli()
+        val endMillis = endTime.toEpochMilli()
+        val compactedBefore = compactedBefore()
+        val buffer = HeartRateSampleBuffer()
+        if (startMillis < compactedBefore) {
+            dao.getRollups(startMillis, minOf(endMillis, compactedBefore)).forEach { minute ->
+                if (minute.sampleCount > 0) buffer.append(minute.bucketStart, minute.averageBpm())
+            }
+        }
+        if (endMillis > compactedBefore) {
+            sampleStorage.scan(maxOf(startMillis, compactedBefore), endMillis, buffer)
+        }
+        buffer
+    }
+    
+    // Stores samples already merged by a read since generation, each with the source the
+    // merge kept for it, unless part of the store was invalidated in between
+    suspend fun putSamples(
+        startTime: Instant,
+        endTime: Instant,
+        samples: HeartRateSampleBuffer,
+        generation: Long
+    ) = withContext(Dispatchers.IO) {
+        synchronized(this@HeartRateSampleStore) {
+            if (invalidationCount.get() != generation) return@withContext
+            replaceRange(startTime.toEpochMilli(), endTime.toEpochMilli()) { insert ->
+                samples.forEachWithOrigin { epochMillis, bpm, origin ->
+                    insert(epochMillis, bpm, origin?.let(::originId) ?: UNKNOWN_ORIGIN_ID)
+                }
+            }
+        }
+    }
+    
+    // Merges records across sources and stores the result with the source of each sample.
+    // Not guarded by a generation: HealthChangesSync, which writes through here, only reads
+    // after its own invalidations and applies the next ones after it has written.
+    suspend fun putRecords(startTime: Instant, endTime: Instant, records: List<HeartRateRecord>) = withContext(Dispatchers.IO) {
+        replaceRange(startTime.toEpochMilli(), endTime.toEpochMilli()) { insert ->
+            val session = heartRateSourceMerger.newSession(object : SampleSink {
+                override fun accept(epochMillis: Long, bpm: Int) = insert(epochMillis, bpm, UNKNOWN_ORIGIN_ID)
+                
+                override fun acceptFrom(epochMillis: Long, bpm: Int, origin: String) =
+                    insert(epochMillis, bpm, originId(origin))
+            })
+            records.sortedBy { it.startTime }.forEach(session::add)
+            session.finish()
+        }
+    }
+    
+    // BPM histograms for the days, endDate exclusive, that are stored in full
+    suspend fun getDailyHistograms(startDate: LocalDate, endDate: LocalDate): Map<LocalDate, BpmHistogram> = withContext(Dispatchers.IO) {
+        val zoneId = ZoneId.systemDefault()
+        val rows = dao.getHistograms(
+            startDate.atStartOfDay(zoneId).toInstant().toEpochMilli(),
+            endDate.atStartOfDay(zoneId).toInstant().toEpochMilli()
+        )
+        rows.mapNotNull { row ->
+            val date = Instant.ofEpochMilli(row.dayStart).atZone(zoneId).toLocalDate()
+            val dayEnd = date.plusDays(1).atStartOfDay(zoneId).toInstant().toEpochMilli()
+            if (dao.countCoveringRanges(row.dayStart, dayEnd) > 0) date to BpmHistogram.fromBytes(row.seconds) else null
+        }.toMap()
+    }
+    
+    // Drops raw samples of the local days before the given date. Their minute rollups are
+    // the downsampled history from then on, the daily histograms stay exact.
+    suspend fun compact(before: LocalDate) = withContext(Dispatchers.IO) {
+        val cutoffMillis = before.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli()
+        if (cutoffMillis <= compactedBefore()) return@withContext
+        // Readers switch to the minute rollups before the samples go
+        dao.setState(StoreStateEntity(KEY_COMPACTED_BEFORE, cutoffMillis))
+        sampleStorage.deleteBefore(cutoffMillis)
+    }
+    
+    // Hands space freed by compaction back to the file system, as much as the sample
+    // storage in use can give back in one go
+    suspend fun vacuum(maxPages: Int) = withContext(Dispatchers.IO) {
+        sampleStorage.reclaim(maxPages)
+    }
+    
+    // Called when Health Connect reports a change inside a stored range, the next read
+    // of it goes back to Health Connect and rewrites it. Coverage either side of the
+    // change is kept.
+    suspend fun invalidate(startTime: Instant, endTime: Instant) = withContext(Dispatchers.IO) {
+        val startMillis = startTime.toEpochMilli()
+        val endMillis = endTime.toEpochMilli()
+        synchronized(this@HeartRateSampleStore) {
+            invalidationCount.incrementAndGet()
+            database.runInTransaction {
+                val overlapping = dao.getOverlappingRanges(startMillis, endMillis)
+                dao.deleteRanges(overlapping)
+                dao.insertCoveredRanges(
+                    overlapping.flatMap { range ->
+                        listOfNotNull(
+                            CoveredRangeEntity(startMillis = range.startMillis, endMillis = startMillis)
+                                .takeIf { range.startMillis < startMillis },
+                            CoveredRangeEntity(startMillis = endMillis, endMillis = range.endMillis)
+                                .takeIf { range.endMillis > endMillis }
+                        )
+                    }
+                )
+            }
+        }
+    }
+    
+    // For a change that can't be placed in time, every range is read from Health Connect again
+    suspend fun invalidateAll() = withContext(Dispatchers.IO) {
+        synchronized(this@HeartRateSampleStore) {
+            invalidationCount.incrementAndGet()
+            dao.deleteAllRanges()
+        }
+    }
+    
+    // Replaces the samples of a range and marks it covered in one transaction, rebuilding
+    // the minute rollups and histograms from what was stored. The range joins the covered
+    // ranges it touches, so a span stored in pieces reads back as one.
+    private fun replaceRange(
+        startMillis: Long,
+        endMillis: Long,
+        write: (insert: (epochMillis: Long, bpm: Int, originId: Int) -> Unit) -> Unit
+    ) {
+        database.runInTransaction {
+            sampleStorage.replace(startMillis, endMillis, write)
+            rebuildRollups(startMillis, endMillis)
+            rebuildHistograms(startMillis, endMillis)
+            val touching = dao.getTouchingRanges(startMillis, endMillis)
+            dao.deleteRanges(touching)
+            dao.insertCoveredRange(
+                CoveredRangeEntity(
+                    startMillis = minOf(startMillis, touching.minOfOrNull { it.startMillis } ?: startMillis),
+                    endMillis = maxOf(endMillis, touching.maxOfOrNull { it.endMillis } ?: endMillis)
+                )
+            )
+        }
+    }
+    
+    // Rewrites the minutes the range touches from the stored samples
+    private fun rebuildRollups(startMillis: Long, endMillis: Long) {
+        val minuteMillis = MinuteRollupBuilder.MINUTE_MILLIS
+        val minuteStart = Math.floorDiv(startMillis, minuteMillis) * minuteMillis
+        val minuteEnd = Math.floorDiv(endMillis + minuteMillis - 1, minuteMillis) * minuteMillis
+        val builder = MinuteRollupBuilder()
+        sampleStorage.scan(minuteStart, minuteEnd, builder)
+        dao.deleteRollups(minuteStart, minuteEnd)
+        dao.insertRollups(builder.finish())
+    }
+    
+    // Rebuilds the histogram of every local day the range touches from that day's stored
+    // samples, each day scanned on its own so credit never runs across midnight. A compacted
+    // day only has raw samples again if the range covers all of it.
+    private fun rebuildHistograms(startMillis: Long, endMillis: Long) {
+        val zoneId = ZoneId.systemDefault()
+        val compactedBefore = compactedBefore()
+        var date = Instant.ofEpochMilli(startMillis).atZone(zoneId).toLocalDate()
+        while (true) {
+            val dayStart = date.atStartOfDay(zoneId).toInstant().toEpochMilli()
+            if (dayStart >= endMillis) break
+            val dayEnd = date.plusDays(1).atStartOfDay(zoneId).toInstant().toEpochMilli()
+            if (dayStart < compactedBefore && (dayStart < startMillis || dayEnd > endMillis)) {
+                date = date.plusDays(1)
+                continue
+            }
+            val histogram = BpmHistogram()
+            sampleStorage.scan(dayStart, dayEnd, histogram)
+            histogram.finish(dayEnd)
+            if (histogram.totalSeconds > 0) {
+                dao.insertHistogram(DailyBpmHistogramEntity(dayStart = dayStart, seconds = histogram.toBytes()))
+            } else {
+                dao.deleteHistogram(dayStart)
+            }
+            date = date.plusDays(1)
+        }
+    }
+    
+    private fun compactedBefore(): Long = dao.getState(KEY_COMPACTED_BEFORE) ?: Long.MIN_VALUE
+    
+    private fun originId(packageName: String): Int = originIds.getOrPut(packageName) {
+        dao.insertOrigin(OriginEntity(packageName = packageName))
+        dao.findOriginId(packageName) ?: UNKNOWN_ORIGIN_ID
+    }
+    
+    companion object {
+        const val UNKNOWN_ORIGIN_ID = 0
+        
+        private const val KEY_COMPACTED_BEFORE = "compacted_before"
+    }
+}
\ No newline at end of file
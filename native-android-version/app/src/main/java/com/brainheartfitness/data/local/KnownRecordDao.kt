@@ -0,0 +1,34 @@
+package com.brainheartfitness.data.local
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+
+// Blocking, KnownRecordStore calls these on the IO dispatcher
+@Dao
+interface KnownRecordDao {
+    @Query("SELECT * FROM known_records WHERE record_id = :recordId")
+    fun get(recordId: String): KnownRecordEntity?
+    
+    @Query("SELECT * FROM known_records WHERE type = :type AND start_millis < :endMillis AND end_millis > :startMillis ORDER BY start_millis")
+    fun getOverlapping(type: Int, startMillis: Long, endMillis: Long): List<KnownRecordEntity>
+    
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun insertAll(records: List<KnownRecordEntity>)
+    
+    @Query("DELETE FROM known_records WHERE record_id = :recordId")
+    fun delete(recordId: String)
+    
+    @Query("DELETE FROM known_records WHERE end_millis < :cutoffMillis")
+    fun deleteEndingBefore(cutoffMillis: Long)
+    
+    @Query("SELECT * FROM sync_state WHERE id = 0")
+    fun getSyncState(): SyncStateEntity?
+    
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun setSyncState(state: SyncStateEntity)
+    
+    @Query("DELETE FROM sync_state")
+    fun clearSyncState()
+}
\ No newline at end of file
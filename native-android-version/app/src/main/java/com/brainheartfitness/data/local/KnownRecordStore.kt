@@ -0,0 +1,56 @@
+package com.brainheartfitness.data.local
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.time.Duration
+import java.time.Instant
+
+// Time ranges of the records HealthChangesSync has seen, by record id, and where the sync
+// left off. Nothing of the sync lives in memory, these let changes reported after a restart
+// be placed and the sync resume from its token.
+class KnownRecordStore(private val database: HealthDatabase) {
+    private val dao = database.knownRecordDao()
+    
+    suspend fun get(recordId: String): KnownRecordEntity? = withContext(Dispatchers.IO) {
+        dao.get(recordId)
+    }
+    
+    // Records of one type overlapping [startMillis, endMillis), in time order
+    suspend fun getOverlapping(type: Int, startMillis: Long, endMillis: Long): List<KnownRecordEntity> = withContext(Dispatchers.IO) {
+        dao.getOverlapping(type, startMillis, endMillis)
+    }
+    
+    suspend fun put(records: List<KnownRecordEntity>) = withContext(Dispatchers.IO) {
+        if (records.isNotEmpty()) dao.insertAll(records)
+    }
+    
+    suspend fun getSyncState(): SyncStateEntity? = withContext(Dispatchers.IO) {
+        dao.getSyncState()
+    }
+    
+    // Applies a batch of changes, null for a deleted record, and moves the sync state past
+    // them in one transaction. A sync that dies before this replays the batch from the old
+    // token against the old ranges.
+    suspend fun commit(state: SyncStateEntity, changes: Map<String, KnownRecordEntity?> = emptyMap()) = withContext(Dispatchers.IO) {
+        database.runInTransaction {
+            val (deleted, upserted) = changes.entries.partition { it.value == null }
+            deleted.forEach { dao.delete(it.key) }
+            if (upserted.isNotEmpty()) dao.insertAll(upserted.mapNotNull { it.value })
+            dao.setSyncState(state)
+        }
+    }
+    
+    suspend fun clearSyncState() = withContext(Dispatchers.IO) {
+        dao.clearSyncState()
+    }
+    
+    // Records that ended longer ago than the retention are forgotten, a change to one of
+    // them can't be placed and invalidates everything
+    suspend fun prune(now: Instant) = withContext(Dispatchers.IO) {
+        dao.deleteEndingBefore(now.minus(RETENTION).toEpochMilli())
+    }
+    
+    companion object {
+        val RETENTION: Duration = Duration.ofDays(400)
+    }
+}
\ No newline at end of file
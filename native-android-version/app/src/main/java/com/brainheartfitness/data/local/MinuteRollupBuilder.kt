@@ -0,0 +1,52 @@
+package com.brainheartfitness.data.local
+
+import com.brainheartfitness.data.health.SampleSink
+
+// Rolls a time-ordered sample stream up into minute rows as it goes, holding only the
+// minute in progress
+class MinuteRollupBuilder : SampleSink {
+    private val rollups = mutableListOf<HeartRateRollupEntity>()
+    private var minuteStart = Long.MIN_VALUE
+    private var count = 0
+    private var sum = 0L
+    private var min = Int.MAX_VALUE
+    private var max = Int.MIN_VALUE
+    
+    override fun accept(epochMillis: Long, bpm: Int) {
+        val minute = epochMillis - Math.floorMod(epochMillis, MINUTE_MILLIS)
+        if (minute != minuteStart) {
+            flush()
+            minuteStart = minute
+        }
+        count++
+        sum += bpm
+        if (bpm < min) min = bpm
+        if (bpm > max) max = bpm
+    }
+    
+    fun finish(): List<HeartRateRollupEntity> {
+        flush()
+        return rollups
+    }
+    
+    private fun flush() {
+        if (count == 0) return
+        rollups.add(
+            HeartRateRollupEntity(
+                bucketStart = minuteStart,
+                sampleCount = count,
+                bpmSum = sum,
+                minBpm = min,
+                maxBpm = max
+            )
+        )
+        count = 0
+        sum = 0L
+        min = Int.MAX_VALUE
+        max = Int.MIN_VALUE
+    }
+    
+    companion object {
+        const val MINUTE_MILLIS = 60 * 1000L
+    }
+}
\ No newline at end of file
@@ -0,0 +1,136 @@
+package com.brainheartfitness.data.local
+
+import com.brainheartfitness.data.health.SampleSink
+
+// Where HeartRateSampleStore keeps raw samples. Blocking, called on the IO dispatcher.
+interface SampleStorage {
+    // Emits the samples in [startMillis, endMillis) in time order
+    fun scan(startMillis: Long, endMillis: Long, sink: SampleSink)
+    
+    // Replaces whatever is stored in [startMillis, endMillis) with the samples write
+    // inserts, which have to come in time order. Samples outside the range are dropped.
+    fun replace(
+        startMillis: Long,
+        endMillis: Long,
+        write: (insert: (epochMillis: Long, bpm: Int, originId: Int) -> Unit) -> Unit
+    )
+    
+    // Drops every sample before cutoffMillis
+    fun deleteBefore(cutoffMillis: Long)
+    
+    // Returns free space left behind by deletes to the file system, up to maxPages 4 KB pages
+    fun reclaim(maxPages: Int)
+}
+
+// Samples packed into hourly chunk rows in the health database. Compact on disk, each
+// chunk is decoded as a whole when a scan reaches it. Writes share the store's database
+// transaction, so a range is never marked covered without its samples.
+class ChunkedSampleStorage(private val database: HealthDatabase) : SampleStorage {
+    private val dao = database.heartRateSampleDao()
+    
+    // A range scan over the chunk headers, decoding only the chunks that can hold samples
+    // in range. Chunks decode into one reused set of arrays, so nothing is allocated per sample.
+    override fun scan(startMillis: Long, endMillis: Long, sink: SampleSink) {
+        val columns = SampleColumns()
+        dao.scanChunks(startMillis, endMillis).use { cursor ->
+            while (cursor.moveToNext()) {
+                columns.clear()
+                HeartRateChunkCodec.decode(cursor.getLong(0), cursor.getInt(1), cursor.getBlob(2), columns)
+                val times = columns.times
+                val bpms = columns.bpms
+                for (i in 0 until columns.size) {
+                    if (times[i] >= startMillis && times[i] < endMillis) {
+                        sink.accept(times[i], bpms[i])
+                    }
+                }
+            }
+        }
+    }
+    
+    // Each chunk window is rewritten as soon as the stream has moved past it, so only one
+    // window is held in memory
+    override fun replace(
+        startMillis: Long,
+        endMillis: Long,
+        write: (insert: (epochMillis: Long, bpm: Int, originId: Int) -> Unit) -> Unit
+    ) {
+        database.runInTransaction {
+            val incoming = SampleColumns()
+            var window = HeartRateChunkEntity.chunkStartOf(startMillis)
+            write { epochMillis, bpm, originId ->
+                if (epochMillis >= startMillis && epochMillis < endMillis) {
+                    val chunkStart = HeartRateChunkEntity.chunkStartOf(epochMillis)
+                    check(chunkStart >= window) { "Samples must be stored in time order" }
+                    while (window < chunkStart) {
+                        rewriteChunk(window, startMillis, endMillis, incoming)
+                        incoming.clear()
+                        window += HeartRateChunkEntity.CHUNK_MILLIS
+                    }
+                    incoming.append(epochMillis, bpm, originId)
+                }
+            }
+            while (window < endMillis) {
+                rewriteChunk(window, startMillis, endMillis, incoming)
+                incoming.clear()
+                window += HeartRateChunkEntity.CHUNK_MILLIS
+            }
+        }
+    }
+    
+    override fun deleteBefore(cutoffMillis: Long) {
+        val straddling = HeartRateChunkEntity.chunkStartOf(cutoffMillis)
+        database.runInTransaction {
+            dao.deleteChunksBefore(straddling)
+            if (straddling < cutoffMillis) replace(straddling, cutoffMillis) { }
+        }
+    }
+    
+    // The first call switches the database to incremental auto-vacuum, which takes one
+    // full VACUUM. Later calls free up to maxPages pages each.
+    override fun reclaim(maxPages: Int) {
+        val db = database.openHelper.writableDatabase
+        val mode = db.query("PRAGMA auto_vacuum").use { cursor -> if (cursor.moveToFirst()) cursor.getInt(0) else 0 }
+        if (mode != AUTO_VACUUM_INCREMENTAL) {
+            db.execSQL("PRAGMA auto_vacuum = INCREMENTAL")
+            db.execSQL("VACUUM")
+        } else {
+            db.query("PRAGMA incremental_vacuum($maxPages)").use { cursor ->
+                while (cursor.moveToNext()) {
+                    // Each row is a page freed
+                }
+            }
+        }
+    }
+    
+    // Swaps the part of a stored chunk inside the range for the incoming samples, keeping
+    // whatever the chunk holds outside it
+    private fun rewriteChunk(chunkStart: Long, startMillis: Long, endMillis: Long, incoming: SampleColumns) {
+        val existing = dao.getChunk(chunkStart)
+        val columns = if (existing == null) {
+            incoming
+        } else {
+            val stored = SampleColumns(existing.sampleCount)
+            HeartRateChunkCodec.decode(existing.chunkStart, existing.sampleCount, existing.data, stored)
+            val merged = SampleColumns(stored.size + incoming.size)
+            for (i in 0 until stored.size) {
+                if (stored.times[i] < startMillis) merged.append(stored.times[i], stored.bpms[i], stored.originIds[i])
+            }
+            for (i in 0 until incoming.size) {
+                merged.append(incoming.times[i], incoming.bpms[i], incoming.originIds[i])
+            }
+            for (i in 0 until stored.size) {
+                if (stored.times[i] >= endMillis) merged.append(stored.times[i], stored.bpms[i], stored.originIds[i])
+            }
+            merged
+        }
+        if (columns.size == 0) {
+            dao.deleteChunk(chunkStart)
+        } else {
+            dao.insertChunk(HeartRateChunkCodec.encode(chunkStart, columns))
+        }
+    }
+    
+    companion object {
+        private const val AUTO_VACUUM_INCREMENTAL = 2
+    }
+}
\ No newline at end of file
@@ -0,0 +1,22 @@
+package com.brainheartfitness.data.local
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+
+// Blocking, SealedDayStore calls these on the IO dispatcher
+@Dao
+interface SealedDayDao {
+    @Query("SELECT * FROM sealed_days WHERE epoch_day >= :startEpochDay AND epoch_day < :endEpochDay ORDER BY epoch_day")
+    fun getDays(startEpochDay: Long, endEpochDay: Long): List<SealedDayEntity>
+    
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun insertDays(days: List<SealedDayEntity>)
+    
+    @Query("DELETE FROM sealed_days WHERE day_start < :endMillis AND day_end > :startMillis")
+    fun deleteOverlapping(startMillis: Long, endMillis: Long)
+    
+    @Query("DELETE FROM sealed_days")
+    fun deleteAll()
+}
\ No newline at end of file
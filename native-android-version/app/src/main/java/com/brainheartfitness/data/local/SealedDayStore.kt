@@ -0,0 +1,45 @@
+package com.brainheartfitness.data.local
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.time.Instant
+import java.time.LocalDate
+import java.util.concurrent.atomic.AtomicLong
+
+// Aggregates of days that have settled, frozen so they aren't read from Health Connect
+// again. HealthChangesSync unseals a day when the Changes API reports an edit inside it.
+class SealedDayStore(database: HealthDatabase) {
+    private val dao = database.sealedDayDao()
+    
+    // Bumped by every unseal, so aggregates read before one aren't sealed after it
+    private val unsealCount = AtomicLong(0)
+    
+    val generation: Long get() = unsealCount.get()
+    
+    // Sealed days in [startDate, endDate)
+    suspend fun getDays(startDate: LocalDate, endDate: LocalDate): Map<LocalDate, SealedDayEntity> = withContext(Dispatchers.IO) {
+        dao.getDays(startDate.toEpochDay(), endDate.toEpochDay()).associateBy { LocalDate.ofEpochDay(it.epochDay) }
+    }
+    
+    // Seals days read since generation, unless something was unsealed in between
+    suspend fun seal(days: List<SealedDayEntity>, generation: Long) = withContext(Dispatchers.IO) {
+        if (days.isEmpty()) return@withContext
+        synchronized(this@SealedDayStore) {
+            if (unsealCount.get() == generation) dao.insertDays(days)
+        }
+    }
+    
+    suspend fun unseal(startTime: Instant, endTime: Instant) = withContext(Dispatchers.IO) {
+        synchronized(this@SealedDayStore) {
+            unsealCount.incrementAndGet()
+            dao.deleteOverlapping(startTime.toEpochMilli(), endTime.toEpochMilli())
+        }
+    }
+    
+    suspend fun unsealAll() = withContext(Dispatchers.IO) {
+        synchronized(this@SealedDayStore) {
+            unsealCount.incrementAndGet()
+            dao.deleteAll()
+        }
+    }
+}
\ No newline at end of file
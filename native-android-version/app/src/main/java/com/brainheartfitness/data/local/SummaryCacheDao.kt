@@ -0,0 +1,22 @@
+package com.brainheartfitness.data.local
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+
+// Blocking, SummaryCache calls these on the IO dispatcher
+@Dao
+interface SummaryCacheDao {
+    @Query("SELECT * FROM summary_cache WHERE kind = :kind AND start_date = :startDate AND end_date = :endDate AND zone_profile_version = :zoneProfileVersion AND goals_version = :goalsVersion")
+    fun get(kind: Int, startDate: Long, endDate: Long, zoneProfileVersion: Long, goalsVersion: Long): SummaryCacheEntity?
+    
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun insert(entry: SummaryCacheEntity)
+    
+    @Query("DELETE FROM summary_cache WHERE start_millis < :endMillis AND end_millis > :startMillis")
+    fun deleteOverlapping(startMillis: Long, endMillis: Long)
+    
+    @Query("DELETE FROM summary_cache")
+    fun deleteAll()
+}
\ No newline at end of file
@@ -13,6 +13,32 @@ data class HeartRateSession(
     val zoneMinutes: Map<String, Int>
 )
 
+data class HeartRateStats(
+    val startTime: Instant,
+    val endTime: Instant,
+    val averageBpm: Int,
+    val minBpm: Int,
+    val maxBpm: Int,
+    val sampleCount: Long
+) {
+    companion object {
+        // Combines buckets into one, weighting each average by its sample count
+        fun merge(buckets: List<HeartRateStats>): HeartRateStats? {
+            val withSamples = buckets.filter { it.sampleCount > 0 }
+            if (withSamples.isEmpty()) return null
+            val totalSamples = withSamples.sumOf { it.sampleCount }
+            return HeartRateStats(
+                startTime = withSamples.minOf { it.startTime },
+                endTime = withSamples.maxOf { it.endTime },
+                averageBpm = (withSamples.sumOf { it.averageBpm * it.sampleCount } / totalSamples).toInt(),
+                minBpm = withSamples.minOf { it.minBpm },
+                maxBpm = withSamples.maxOf { it.maxBpm },
+                sampleCount = totalSamples
+            )
+        }
+    }
+}
+
 data class DailyHealthSummary(
     val date: LocalDate,
     val totalMinutes: Int,
@@ -0,0 +1,103 @@
+package com.brainheartfitness.data.model
+
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.nio.ByteBuffer
+import java.security.MessageDigest
+
+// Zones and goals compiled once into lookup tables. Classifying a sample is one load from
+// a 256-entry BPM table, goals are read by zone index, and the versions are SHA-256 digests
+// of the tables, so a summary cached under one profile is only hit again under an identical
+// one, after a restart included. A profile is immutable, changing it is swapping in another.
+class ZoneProfile private constructor(
+    zones: List<HeartRateZone>,
+    private val zoneByBpm: ByteArray,
+    private val dailyGoals: IntArray,
+    private val weeklyGoals: IntArray,
+    val dailyZone2PlusGoal: Int,
+    val weeklyZone2PlusGoal: Int
+) {
+    // Carrying the compiled goals, so progress only has to fill in the minutes
+    val zones: List<HeartRateZone> = zones.mapIndexed { index, zone ->
+        zone.copy(minutes = 0, dailyGoal = dailyGoals[index], weeklyGoal = weeklyGoals[index])
+    }
+    
+    val zoneCount: Int get() = zones.size
+    
+    val zoneVersion: Long = digest { output ->
+        output.write(zoneByBpm)
+        output.writeInt(zones.size)
+        zones.forEach { output.writeUTF(it.id) }
+    }
+    
+    val goalsVersion: Long = digest { output ->
+        output.writeInt(dailyGoals.size)
+        dailyGoals.forEach(output::writeInt)
+        weeklyGoals.forEach(output::writeInt)
+        output.writeInt(dailyZone2PlusGoal)
+        output.writeInt(weeklyZone2PlusGoal)
+    }
+    
+    // Index into zones, or -1 when no zone covers the BPM. Readings above the table are
+    // classified as its top entry.
+    fun zoneIndexOf(bpm: Int): Int = zoneByBpm[bpm.coerceIn(0, BPM_TABLE_SIZE - 1)].toInt()
+    
+    fun dailyGoal(zoneIndex: Int): Int = dailyGoals[zoneIndex]
+    
+    fun weeklyGoal(zoneIndex: Int): Int = weeklyGoals[zoneIndex]
+    
+    fun zone2PlusGoal(timeRange: TimeRange): Int =
+        if (timeRange == TimeRange.DAILY) dailyZone2PlusGoal else weeklyZone2PlusGoal
+    
+    // Zone 2 and up is every zone after the lowest, whatever the profile calls them
+    fun zone2PlusMinutes(zoneMinutes: Map<String, Int>): Int =
+        zones.drop(1).sumOf { zone -> zoneMinutes[zone.id] ?: 0 }
+    
+    // The zones with their minutes from a breakdown keyed by zone id
+    fun progressZones(zoneMinutes: Map<String, Int>): List<HeartRateZone> =
+        zones.map { zone -> zone.copy(minutes = zoneMinutes[zone.id] ?: 0) }
+    
+    companion object {
+        const val BPM_TABLE_SIZE = 256
+        
+        private const val NO_ZONE: Byte = -1
+        
+        // The first 64 bits of the SHA-256 of what write serializes. Unlike a hashCode these
+        // don't collide in practice, so they are safe as keys of summaries kept on disk.
+        private fun digest(write: (DataOutputStream) -> Unit): Long {
+            val bytes = ByteArrayOutputStream()
+            DataOutputStream(bytes).use(write)
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray())).long
+        }
+        
+        val DEFAULT: ZoneProfile = compile(
+            zones = HeartRateZone.DEFAULT_ZONES,
+            dailyZone2PlusGoal = 30,
+            weeklyZone2PlusGoal = 150
+        )
+        
+        // Where zones overlap, a BPM belongs to the first one that covers it
+        fun compile(
+            zones: List<HeartRateZone>,
+            dailyGoals: List<Int> = zones.map { it.dailyGoal },
+            weeklyGoals: List<Int> = zones.map { it.weeklyGoal },
+            dailyZone2PlusGoal: Int,
+            weeklyZone2PlusGoal: Int
+        ): ZoneProfile {
+            require(zones.size <= Byte.MAX_VALUE) { "Too many zones: ${zones.size}" }
+            require(dailyGoals.size == zones.size && weeklyGoals.size == zones.size) { "One goal per zone" }
+            val zoneByBpm = ByteArray(BPM_TABLE_SIZE) { bpm ->
+                val index = zones.indexOfFirst { bpm in it.minBpm..it.maxBpm }
+                if (index < 0) NO_ZONE else index.toByte()
+            }
+            return ZoneProfile(
+                zones,
+                zoneByBpm,
+                dailyGoals.toIntArray(),
+                weeklyGoals.toIntArray(),
+                dailyZone2PlusGoal,
+                weeklyZone2PlusGoal
+            )
+        }
+    }
+}
\ No newline at end of file
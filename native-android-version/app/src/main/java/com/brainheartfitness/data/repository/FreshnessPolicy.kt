@@ -0,0 +1,29 @@
+package com.brainheartfitness.data.repository
+
+import java.time.Duration
+import java.time.LocalDate
+
+// How long what was computed for a range stays good. The most recent settleDays days,
+// today included, can still receive late uploads and are recomputed after a short TTL.
+// Older days are sealed: their aggregates are kept until the Changes API reports an edit.
+class FreshnessPolicy(
+    private val settleDays: Long = DEFAULT_SETTLE_DAYS,
+    private val todayTtl: Duration = Duration.ofMinutes(1),
+    private val recentTtl: Duration = Duration.ofMinutes(15)
+) {
+    // Days before this one are sealed
+    fun sealedBefore(today: LocalDate): LocalDate = today.minusDays(settleDays - 1)
+    
+    fun isSealed(date: LocalDate, today: LocalDate): Boolean = date < sealedBefore(today)
+    
+    // Null for a range of sealed days, endDate exclusive
+    fun ttlFor(startDate: LocalDate, endDate: LocalDate, today: LocalDate): Duration? = when {
+        endDate <= sealedBefore(today) -> null
+        endDate > today -> todayTtl
+        else -> recentTtl
+    }
+    
+    companion object {
+        const val DEFAULT_SETTLE_DAYS = 2L
+    }
+}
\ No newline at end of file
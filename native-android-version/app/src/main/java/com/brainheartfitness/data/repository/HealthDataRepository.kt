@@ -1,50 +1,103 @@
 package com.brainheartfitness.data.repository
 
-import com.brainheartfitness.data.health.HealthConnectManager
+import androidx.health.connect.client.records.ExerciseSessionRecord
+import com.brainheartfitness.data.health.ExerciseWindows
+import com.brainheartfitness.data.health.HealthChangesSync
+import com.brainheartfitness.data.health.HealthDataSource
+import com.brainheartfitness.data.health.HeartRateSampleBuffer
+import com.brainheartfitness.data.health.HeartRateSourceMerger
+import com.brainheartfitness.data.health.ZoneMinuteEngine
+import com.brainheartfitness.data.local.BpmHistogram
+import com.brainheartfitness.data.local.HeartRateSampleStore
+import com.brainheartfitness.data.local.SealedDayEntity
+import com.brainheartfitness.data.local.SealedDayStore
 import com.brainheartfitness.data.model.*
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
+import java.time.Duration
 import java.time.Instant
 import java.time.LocalDate
 import java.time.ZoneId
 import java.time.temporal.ChronoUnit
-import javax.inject.Inject
-import javax.inject.Singleton
-import kotlin.math.roundToInt
 
-@Singleton
-class HealthDataRepository @Inject constructor(
-    private val healthConnectManager: HealthConnectManager
+enum class HeartRateReadMode {
+    // Every heart rate sample in the range
+    FULL,
+    // Samples only around exercise sessions, headline numbers come from aggregates
+    EXERCISE_SCOPED
+}
+
+class HealthDataRepository(
+    private val healthDataSource: HealthDataSource,
+    private val healthChangesSync: HealthChangesSync,
+    private val heartRateSourceMerger: HeartRateSourceMerger,
+    private val heartRateSampleStore: HeartRateSampleStore,
+    private val summaryCache: SummaryCache,
+    private val sealedDayStore: SealedDayStore,
+    private val freshnessPolicy: FreshnessPolicy,
+    private val zoneProfiles: ZoneProfileHolder,
+    private val heartRateReadMode: HeartRateReadMode
 ) {
+    // Concurrent identical loads (tab switches, retries, both screens) share one computation
+    private val loadScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val weeklySummaryFlights = SingleFlight<QueryKey, WeeklyHealthSummary>(loadScope)
+    private val dailySummaryFlights = SingleFlight<QueryKey, DailyHealthSummary>(loadScope)
+    private val weeklyProgressFlights = SingleFlight<QueryKey, List<DailyProgress>>(loadScope)
+    
+    suspend fun getWeeklyHealthSummary(): WeeklyHealthSummary {
+        val weekStartDate = getWeekStart(Instant.now()).atZone(ZoneId.systemDefault()).toLocalDate()
+        val profile = zoneProfiles.current
+        val key = queryKey(QueryKind.WEEKLY_SUMMARY, weekStartDate, weekStartDate.plusWeeks(1), profile)
+        return summaryCache.getOrLoad(key, WeeklySummaryCodec) {
+            weeklySummaryFlights.run(key) { loadWeeklyHealthSummary(profile) }
+        }
+    }
+    
+    suspend fun getDailyHealthSummary(date: LocalDate): DailyHealthSummary {
+        val profile = zoneProfiles.current
+        val key = queryKey(QueryKind.DAILY_SUMMARY, date, date.plusDays(1), profile)
+        return summaryCache.getOrLoad(key, DailySummaryCodec) {
+            dailySummaryFlights.run(key) { loadDailyHealthSummary(date, profile) }
+        }
+    }
+    
+    suspend fun getWeeklyProgress(): List<DailyProgress> {
+        val today = LocalDate.now()
+        val weekStart = today.minusDays(today.dayOfWeek.value.toLong() - 1)
+        val profile = zoneProfiles.current
+        val key = queryKey(QueryKind.WEEKLY_PROGRESS, weekStart, weekStart.plusWeeks(1), profile)
+        return summaryCache.getOrLoad(key, WeeklyProgressCodec) {
+            weeklyProgressFlights.run(key) { loadWeeklyProgress(profile) }
+        }
+    }
+    
+    // The profile is read once per query, so the key and the load agree on it across a swap
+    private fun queryKey(kind: QueryKind, startDate: LocalDate, endDate: LocalDate, profile: ZoneProfile) =
+        QueryKey(kind, startDate, endDate, profile.zoneVersion, profile.goalsVersion)
     
-    suspend fun getWeeklyHealthSummary(): WeeklyHealthSummary = withContext(Dispatchers.IO) {
+    private suspend fun loadWeeklyHealthSummary(profile: ZoneProfile): WeeklyHealthSummary = withContext(Dispatchers.IO) {
         val now = Instant.now()
         val weekStart = getWeekStart(now)
+        val reads = loadHealthReads(weekStart, now, profile)
         
-        // Get heart rate data for the week
-        val heartRateData = healthConnectManager.getHeartRateData(weekStart, now)
-        val stepsData = healthConnectManager.getStepsData(weekStart, now)
-        
-        // For demo purposes, generate some realistic dummy data
-        val zones = HeartRateZone.DEFAULT_ZONES
-        val dummyZoneBreakdown = mapOf(
-            "zone1" to (20..40).random(),
-            "zone2" to (80..120).random(),
-            "zone3" to (30..60).random(),
-            "zone4" to (10..25).random(),
-            "zone5" to (5..15).random()
-        )
-        
-        val totalMinutes = dummyZoneBreakdown.values.sum()
-        val averageHeartRate = (65..85).random()
-        val maxHeartRate = (150..180).random()
-        val minHeartRate = (55..70).random()
-        val totalSteps = (8000..15000).random()
+        val zoneBreakdown = sumZoneMinutes(reads.dailyZoneMinutes.values, profile)
+        val totalMinutes = zoneBreakdown.values.sum()
+        val averageHeartRate = reads.heartRateStats?.averageBpm ?: 0
+        val maxHeartRate = reads.heartRateStats?.maxBpm ?: 0
+        val minHeartRate = reads.heartRateStats?.minBpm ?: 0
+        val totalSteps = reads.stepTotals?.values?.sum()?.toInt() ?: 0
+        val sessions = toHeartRateSessions(reads.exercise, reads.heartRateSamples, now, profile)
         
         WeeklyHealthSummary(
             totalMinutes = totalMinutes,
-            zoneBreakdown = dummyZoneBreakdown,
-            sessions = generateDummySessions(),
+            zoneBreakdown = zoneBreakdown,
+            sessions = sessions,
             averageHeartRate = averageHeartRate,
             maxHeartRate = maxHeartRate,
             minHeartRate = minHeartRate,
@@ -52,34 +105,25 @@ class HealthDataRepository @Inject constructor(
         )
     }
     
-    suspend fun getDailyHealthSummary(date: LocalDate): DailyHealthSummary = withContext(Dispatchers.IO) {
+    private suspend fun loadDailyHealthSummary(date: LocalDate, profile: ZoneProfile): DailyHealthSummary = withContext(Dispatchers.IO) {
         val dayStart = date.atStartOfDay(ZoneId.systemDefault()).toInstant()
         val dayEnd = dayStart.plus(1, ChronoUnit.DAYS)
+        val reads = loadHealthReads(dayStart, dayEnd, profile)
         
-        // Get data for the day
-        val heartRateData = healthConnectManager.getHeartRateData(dayStart, dayEnd)
-        val stepsData = healthConnectManager.getStepsData(dayStart, dayEnd)
-        
-        // For demo purposes, generate some realistic dummy data
-        val dummyZoneBreakdown = mapOf(
-            "zone1" to (5..15).random(),
-            "zone2" to (15..35).random(),
-            "zone3" to (5..15).random(),
-            "zone4" to (0..8).random(),
-            "zone5" to (0..5).random()
-        )
-        
-        val totalMinutes = dummyZoneBreakdown.values.sum()
-        val averageHeartRate = (65..85).random()
-        val maxHeartRate = (120..160).random()
-        val minHeartRate = (55..70).random()
-        val steps = (2000..12000).random()
+        val zoneBreakdown = reads.dailyZoneMinutes[date] ?: sumZoneMinutes(emptyList(), profile)
+        val totalMinutes = zoneBreakdown.values.sum()
+        val averageHeartRate = reads.heartRateStats?.averageBpm ?: 0
+        val maxHeartRate = reads.heartRateStats?.maxBpm ?: 0
+        val minHeartRate = reads.heartRateStats?.minBpm ?: 0
+        val steps = reads.stepTotals?.get(date)?.toInt() ?: 0
+        // Today's sessions end now, not at midnight
+        val sessions = toHeartRateSessions(reads.exercise, reads.heartRateSamples, minOf(dayEnd, Instant.now()), profile)
         
         DailyHealthSummary(
             date = date,
             totalMinutes = totalMinutes,
-            zoneBreakdown = dummyZoneBreakdown,
-            sessions = generateDummySessions(1),
+            zoneBreakdown = zoneBreakdown,
+            sessions = sessions,
             averageHeartRate = averageHeartRate,
             maxHeartRate = maxHeartRate,
             minHeartRate = minHeartRate,
@@ -87,17 +131,22 @@ class HealthDataRepository @Inject constructor(
         )
     }
     
-    suspend fun getWeeklyProgress(): List<DailyProgress> = withContext(Dispatchers.IO) {
+    private suspend fun loadWeeklyProgress(profile: ZoneProfile): List<DailyProgress> = withContext(Dispatchers.IO) {
         val today = LocalDate.now()
         val weekStart = today.minusDays(today.dayOfWeek.value.toLong() - 1)
+        val dailyZoneMinutes = loadDailyZoneMinutes(weekStart, weekStart.plusWeeks(1), profile) {
+            // Only days without a stored histogram get here, the week is read once for all of them
+            val startTime = weekStart.atStartOfDay(ZoneId.systemDefault()).toInstant()
+            val now = Instant.now()
+            readHeartRate(startTime, now, heartRateSourceMerger.policy.allowedOrigins) {
+                healthDataSource.getExerciseData(startTime, now)
+            }
+        }
         
         (0..6).map { dayOffset ->
             val date = weekStart.plusDays(dayOffset.toLong())
-            val zone2PlusMinutes = if (date <= today) {
-                (10..45).random() // Random data for demo
-            } else {
-                0 // Future days
-            }
+            // Future days have no minutes yet
+            val zone2PlusMinutes = profile.zone2PlusMinutes(dailyZoneMinutes[date].orEmpty())
             
             DailyProgress(
                 day = date.dayOfWeek,
@@ -110,57 +159,322 @@ class HealthDataRepository @Inject constructor(
     fun convertToProgressData(
         summary: WeeklyHealthSummary,
         timeRange: TimeRange
-    ): ProgressData {
-        val zones = HeartRateZone.DEFAULT_ZONES
-        val goals = if (timeRange == TimeRange.DAILY) {
-            mapOf("zone1" to 20, "zone2" to 25, "zone3" to 5, "zone2Plus" to 30)
-        } else {
-            mapOf("zone1" to 150, "zone2" to 150, "zone3" to 30, "zone2Plus" to 150)
+    ): ProgressData = toProgressData(summary.zoneBreakdown, timeRange)
+    
+    fun convertToProgressData(
+        summary: DailyHealthSummary,
+        timeRange: TimeRange
+    ): ProgressData = toProgressData(summary.zoneBreakdown, timeRange)
+    
+    // Goals come compiled with the profile, only the minutes are filled in per call
+    private fun toProgressData(zoneBreakdown: Map<String, Int>, timeRange: TimeRange): ProgressData {
+        val profile = zoneProfiles.current
+        return ProgressData(
+            zones = profile.progressZones(zoneBreakdown),
+            totalZone2PlusMinutes = profile.zone2PlusMinutes(zoneBreakdown),
+            zone2PlusGoal = profile.zone2PlusGoal(timeRange)
+        )
+    }
+    
+    // Issues the heart rate, exercise, stats and step reads concurrently, so a cold load
+    // is bounded by the slowest read instead of the sum of all of them
+    private suspend fun loadHealthReads(
+        startTime: Instant,
+        endTime: Instant,
+        profile: ZoneProfile
+    ): HealthReads = coroutineScope {
+        val zoneId = ZoneId.systemDefault()
+        val startDate = startTime.atZone(zoneId).toLocalDate()
+        val endDate = endTime.minusNanos(1).atZone(zoneId).toLocalDate().plusDays(1)
+        
+        val origins = heartRateSourceMerger.policy.allowedOrigins
+        
+        // The sync brings the stored week up to date before it is read, older ranges don't wait
+        // for a sync they can't use. Replayed traces and synthetic data are served as they are,
+        // there is nothing to sync. Exercise sessions are a page or two, always read directly.
+        val syncWindowStart = getWeekStart(Instant.now())
+        val synced = async {
+            if (healthDataSource.isLive && startTime >= syncWindowStart) healthChangesSync.sync(syncWindowStart)
+        }
+        val exercise = async { healthDataSource.getExerciseData(startTime, endTime) }
+        val heartRateSamples = async {
+            synced.await()
+            readHeartRate(startTime, endTime, origins) { exercise.await() }
+        }
+        val dailyAggregates = async {
+            synced.await()
+            loadDailyAggregates(startTime, endTime, origins)
+        }
+        val dailyZoneMinutes = async {
+            synced.await()
+            // Days without a stored histogram are built from the samples read above
+            loadDailyZoneMinutes(startDate, endDate, profile) { heartRateSamples.await() }
         }
         
-        val progressZones = zones.map { zone ->
-            zone.copy(
-                minutes = summary.zoneBreakdown[zone.id] ?: 0,
-                dailyGoal = if (timeRange == TimeRange.DAILY) goals[zone.id] ?: 0 else zone.dailyGoal,
-                weeklyGoal = if (timeRange == TimeRange.WEEKLY) goals[zone.id] ?: 0 else zone.weeklyGoal
+        HealthReads(
+            heartRateSamples = heartRateSamples.await(),
+            exercise = exercise.await(),
+            heartRateStats = dailyAggregates.await().heartRateStats?.let(HeartRateStats::merge),
+            stepTotals = dailyAggregates.await().stepTotals,
+            dailyZoneMinutes = dailyZoneMinutes.await()
+        )
+    }
+    
+    // Heart rate stats per day and step totals. Sealed days answer from their frozen
+    // aggregates, only the runs of days between them are read from the source, and days
+    // read that have settled are sealed for next time.
+    private suspend fun loadDailyAggregates(
+        startTime: Instant,
+        endTime: Instant,
+        origins: Set<String>
+    ): DailyAggregates = coroutineScope {
+        val zoneId = ZoneId.systemDefault()
+        val today = LocalDate.now()
+        val startDate = startTime.atZone(zoneId).toLocalDate()
+        val endDate = endTime.minusNanos(1).atZone(zoneId).toLocalDate().plusDays(1)
+        val sealedBefore = freshnessPolicy.sealedBefore(today)
+        val sealed = if (healthDataSource.isLive) {
+            sealedDayStore.getDays(startDate, minOf(endDate, sealedBefore))
+        } else {
+            emptyMap()
+        }
+        val sealedStats = sealed.values.filter { it.sampleCount > 0 }.map { day ->
+            HeartRateStats(
+                startTime = Instant.ofEpochMilli(day.dayStart),
+                endTime = Instant.ofEpochMilli(day.dayEnd),
+                averageBpm = day.averageBpm,
+                minBpm = day.minBpm,
+                maxBpm = day.maxBpm,
+                sampleCount = day.sampleCount
             )
         }
+        val sealedSteps = sealed.mapValues { (_, day) -> day.steps }
         
-        val totalZone2PlusMinutes = (summary.zoneBreakdown["zone2"] ?: 0) + (summary.zoneBreakdown["zone3"] ?: 0)
+        // Consecutive unsealed days, endDate exclusive, so no sealed day is read again
+        val runs = mutableListOf<Pair<LocalDate, LocalDate>>()
+        generateSequence(startDate) { it.plusDays(1) }.takeWhile { it < endDate }.filter { it !in sealed }.forEach { date ->
+            val last = runs.lastOrNull()
+            if (last != null && last.second == date) {
+                runs[runs.lastIndex] = last.first to date.plusDays(1)
+            } else {
+                runs.add(date to date.plusDays(1))
+            }
+        }
+        if (runs.isEmpty()) return@coroutineScope DailyAggregates(sealedStats, sealedSteps)
         
-        return ProgressData(
-            zones = progressZones,
-            totalZone2PlusMinutes = totalZone2PlusMinutes,
-            zone2PlusGoal = goals["zone2Plus"] ?: 150
+        val generation = sealedDayStore.generation
+        val reads = runs.map { (runStart, runEnd) ->
+            async {
+                val readStart = maxOf(startTime, runStart.atStartOfDay(zoneId).toInstant())
+                val readEnd = minOf(endTime, runEnd.atStartOfDay(zoneId).toInstant())
+                val stats = async { healthDataSource.getHeartRateStats(readStart, readEnd, origins = origins) }
+                val steps = async { healthDataSource.getDailyStepTotals(runStart, runEnd) }
+                DayRead(readStart, readEnd, runStart, minOf(runEnd, sealedBefore), stats.await(), steps.await())
+            }
+        }.awaitAll()
+        
+        if (healthDataSource.isLive) {
+            val settled = reads.flatMap { read -> sealableDays(read, zoneId) }
+            loadScope.launch {
+                try {
+                    sealedDayStore.seal(settled, generation)
+                } catch (e: Exception) {
+                    // Unsealed days are read from the source again next time
+                }
+            }
+        }
+        
+        // Null only when there is nothing at all, sealed or read
+        val readStats = reads.mapNotNull { it.stats }
+        val readSteps = reads.mapNotNull { it.steps }
+        DailyAggregates(
+            heartRateStats = if (readStats.isEmpty() && sealed.isEmpty()) null else sealedStats + readStats.flatten(),
+            stepTotals = if (readSteps.isEmpty() && sealed.isEmpty()) null else sealedSteps + readSteps.flatMap { it.entries }.associate { it.toPair() }
         )
     }
     
-    fun convertToProgressData(
-        summary: DailyHealthSummary,
-        timeRange: TimeRange
-    ): ProgressData {
-        val zones = HeartRateZone.DEFAULT_ZONES
-        val goals = if (timeRange == TimeRange.DAILY) {
-            mapOf("zone1" to 20, "zone2" to 25, "zone3" to 5, "zone2Plus" to 30)
+    // The days of a read that can be sealed: settled, covered whole by the read, and, since
+    // buckets are fixed 24 hours from readStart, bucketed on that day's midnights, which a DST
+    // change breaks. A read with either half failed seals nothing.
+    private fun sealableDays(read: DayRead, zoneId: ZoneId): List<SealedDayEntity> {
+        val stats = read.stats ?: return emptyList()
+        val steps = read.steps ?: return emptyList()
+        val (aligned, misaligned) = stats.partition { bucket ->
+            val date = bucket.startTime.atZone(zoneId).toLocalDate()
+            bucket.startTime == date.atStartOfDay(zoneId).toInstant() &&
+                bucket.endTime == date.plusDays(1).atStartOfDay(zoneId).toInstant()
+        }
+        val statsByDate = aligned.associateBy { it.startTime.atZone(zoneId).toLocalDate() }
+        return generateSequence(read.firstDay) { it.plusDays(1) }
+            .takeWhile { it < read.sealableBefore }
+            .mapNotNull { date ->
+                val dayStart = date.atStartOfDay(zoneId).toInstant()
+                val dayEnd = date.plusDays(1).atStartOfDay(zoneId).toInstant()
+                if (dayStart < read.readStart || dayEnd > read.readEnd) return@mapNotNull null
+                if (misaligned.any { it.startTime < dayEnd && it.endTime > dayStart }) return@mapNotNull null
+                val dayStats = statsByDate[date]
+                SealedDayEntity(
+                    epochDay = date.toEpochDay(),
+                    dayStart = dayStart.toEpochMilli(),
+                    dayEnd = dayEnd.toEpochMilli(),
+                    sampleCount = dayStats?.sampleCount ?: 0,
+                    averageBpm = dayStats?.averageBpm ?: 0,
+                    minBpm = dayStats?.minBpm ?: 0,
+                    maxBpm = dayStats?.maxBpm ?: 0,
+                    steps = steps[date] ?: 0
+                )
+            }
+            .toList()
+    }
+    
+    // Zone minutes per day, endDate exclusive, evaluated from BPM histograms so the zones
+    // can change without a rescan. Stored days have theirs on disk, the rest are built from
+    // the samples of the days up to now, which readSamples reads as the mode says: all of
+    // them in FULL mode, only those around exercise when exercise-scoped. It is only called
+    // if some day is missing.
+    private suspend fun loadDailyZoneMinutes(
+        startDate: LocalDate,
+        endDate: LocalDate,
+        profile: ZoneProfile,
+        readSamples: suspend () -> HeartRateSampleBuffer
+    ): Map<LocalDate, Map<String, Int>> {
+        val zoneId = ZoneId.systemDefault()
+        val now = Instant.now()
+        val stored = if (healthDataSource.isLive) {
+            heartRateSampleStore.getDailyHistograms(startDate, endDate)
         } else {
-            mapOf("zone1" to 150, "zone2" to 150, "zone3" to 30, "zone2Plus" to 150)
+            emptyMap()
         }
         
-        val progressZones = zones.map { zone ->
-            zone.copy(
-                minutes = summary.zoneBreakdown[zone.id] ?: 0,
-                dailyGoal = if (timeRange == TimeRange.DAILY) goals[zone.id] ?: 0 else zone.dailyGoal,
-                weeklyGoal = if (timeRange == TimeRange.WEEKLY) goals[zone.id] ?: 0 else zone.weeklyGoal
-            )
+        val days = generateSequence(startDate) { it.plusDays(1) }.takeWhile { it < endDate }.toList()
+        // Future days have no minutes yet
+        val missing = days.filter { it !in stored && it.atStartOfDay(zoneId).toInstant() < now }.toSet()
+        val built = if (missing.isEmpty()) emptyMap() else dailyHistograms(readSamples(), missing, zoneId, now)
+        return days.associateWith { date ->
+            (stored[date] ?: built[date])?.zoneMinutes(profile) ?: sumZoneMinutes(emptyList(), profile)
+        }
+    }
+    
+    // One histogram per local day of the samples, for the given days only, each finished at
+    // the end of its day or now so credit never runs across midnight
+    private fun dailyHistograms(
+        samples: HeartRateSampleBuffer,
+        dates: Set<LocalDate>,
+        zoneId: ZoneId,
+        now: Instant
+    ): Map<LocalDate, BpmHistogram> {
+        val histograms = HashMap<LocalDate, BpmHistogram>()
+        var dayEnd = Long.MIN_VALUE
+        var histogram: BpmHistogram? = null
+        samples.forEach { epochMillis, bpm ->
+            if (epochMillis >= dayEnd) {
+                histogram?.finish(minOf(dayEnd, now.toEpochMilli()))
+                val date = Instant.ofEpochMilli(epochMillis).atZone(zoneId).toLocalDate()
+                dayEnd = date.plusDays(1).atStartOfDay(zoneId).toInstant().toEpochMilli()
+                histogram = if (date in dates) BpmHistogram().also { histograms[date] = it } else null
+            }
+            histogram?.accept(epochMillis, bpm)
+        }
+        histogram?.finish(minOf(dayEnd, now.toEpochMilli()))
+        return histograms
+    }
+    
+    private fun sumZoneMinutes(days: Collection<Map<String, Int>>, profile: ZoneProfile): Map<String, Int> =
+        profile.zones.associate { zone -> zone.id to days.sumOf { it[zone.id] ?: 0 } }
+    
+    // Heart rate of a range as the read mode has it: every sample in FULL mode, only the
+    // exercise windows when exercise-scoped, with the sessions only read in that case
+    private suspend fun readHeartRate(
+        startTime: Instant,
+        endTime: Instant,
+        origins: Set<String>,
+        exercise: suspend () -> List<ExerciseSessionRecord>
+    ): HeartRateSampleBuffer = when (heartRateReadMode) {
+        HeartRateReadMode.FULL -> readHeartRateSamples(startTime, endTime, origins)
+        HeartRateReadMode.EXERCISE_SCOPED -> {
+            val sessions = exercise().map { it.startTime to it.endTime }
+            readHeartRateSamples(ExerciseWindows.of(sessions, startTime, endTime), origins)
+        }
+    }
+    
+    // Overlapping sources collapse into one primitive sample buffer before anything is counted.
+    // The synced week and stored past ranges are served from the local database, anything
+    // else is read from the source and, once settled, stored for next time.
+    private suspend fun readHeartRateSamples(
+        startTime: Instant,
+        endTime: Instant,
+        origins: Set<String>
+    ): HeartRateSampleBuffer {
+        if (!healthDataSource.isLive) {
+            return healthDataSource.getHeartRateSamples(startTime, endTime, origins)
+        }
+        if (heartRateSampleStore.isCovered(startTime, endTime)) {
+            return heartRateSampleStore.getHeartRateSamples(startTime, endTime)
+        }
+        val generation = heartRateSampleStore.generation
+        val samples = healthDataSource.getHeartRateSamples(startTime, endTime, origins)
+        if (endTime < Instant.now().minus(STORE_SETTLE_TIME)) {
+            // Written off the load path, unless a sync has invalidated part of the store since
+            loadScope.launch {
+                try {
+                    heartRateSampleStore.putSamples(startTime, endTime, samples, generation)
+                } catch (e: Exception) {
+                    // A failed write only means the range is read from the source again
+                }
+            }
+        }
+        return samples
+    }
+    
+    // Reads the windows concurrently and joins them into one buffer. Records overlapping a
+    // window can carry samples outside it, those are dropped so the windows stay in order.
+    private suspend fun readHeartRateSamples(
+        windows: List<Pair<Instant, Instant>>,
+        origins: Set<String>
+    ): HeartRateSampleBuffer = coroutineScope {
+        val reads = windows.map { (windowStart, windowEnd) ->
+            async { readHeartRateSamples(windowStart, windowEnd, origins) }
+        }
+        val buffer = HeartRateSampleBuffer()
+        windows.forEachIndexed { index, (windowStart, windowEnd) ->
+            val startMillis = windowStart.toEpochMilli()
+            val endMillis = windowEnd.toEpochMilli()
+            reads[index].await().forEachWithOrigin { epochMillis, bpm, origin ->
+                if (epochMillis >= startMillis && epochMillis < endMillis) buffer.append(epochMillis, bpm, origin)
+            }
+        }
+        buffer
+    }
+    
+    // One engine pass over the samples with each exercise as a session window, so zone
+    // minutes are the time actually spent in each zone during it, not its duration split by
+    // sample counts. An exercise overlapping the one before starts where that one ends.
+    // Without exercise sessions that have samples, sessions are the stretches of continuous
+    // heart rate. Only a FULL read has every sample, exercise-scoped ones all lie inside
+    // exercise windows.
+    private fun toHeartRateSessions(
+        exercise: List<ExerciseSessionRecord>,
+        heartRateSamples: HeartRateSampleBuffer,
+        endTime: Instant,
+        profile: ZoneProfile
+    ): List<HeartRateSession> {
+        val windows = mutableListOf<Pair<Long, Long>>()
+        exercise.sortedBy { it.startTime }.forEach { session ->
+            val windowStart = maxOf(session.startTime.toEpochMilli(), windows.lastOrNull()?.second ?: Long.MIN_VALUE)
+            val windowEnd = session.endTime.toEpochMilli()
+            if (windowStart < windowEnd) windows.add(windowStart to windowEnd)
+        }
+        if (windows.isNotEmpty()) {
+            val engine = ZoneMinuteEngine(profile, minSessionMillis = 0, sessionWindows = windows)
+            heartRateSamples.forEach { epochMillis, bpm -> engine.accept(epochMillis, bpm) }
+            val sessions = engine.finish(endTime.toEpochMilli()).sessions
+            if (sessions.isNotEmpty()) return sessions
         }
         
-        val totalZone2PlusMinutes = (summary.zoneBreakdown["zone2"] ?: 0) + (summary.zoneBreakdown["zone3"] ?: 0)
-        
-        return ProgressData(
-            zones = progressZones,
-            totalZone2PlusMinutes = totalZone2PlusMinutes,
-            zone2PlusGoal = goals["zone2Plus"] ?: 30
-        )
+        if (heartRateReadMode != HeartRateReadMode.FULL) return emptyList()
+        val engine = ZoneMinuteEngine(profile)
+        heartRateSamples.forEach { epochMillis, bpm -> engine.accept(epochMillis, bpm) }
+        return engine.finish(endTime.toEpochMilli()).sessions
     }
     
     private fun getWeekStart(timestamp: Instant): Instant {
@@ -169,26 +483,33 @@ class HealthDataRepository @Inject constructor(
         return weekStart.atStartOfDay(ZoneId.systemDefault()).toInstant()
     }
     
-    private fun generateDummySessions(count: Int = 3): List<HeartRateSession> {
-        val now = Instant.now()
-        return (0 until count).map { i ->
-            val sessionStart = now.minus((i + 1) * 8, ChronoUnit.HOURS)
-            val sessionEnd = sessionStart.plus(45, ChronoUnit.MINUTES)
-            
-            HeartRateSession(
-                startTime = sessionStart,
-                endTime = sessionEnd,
-                averageBpm = (70..140).random(),
-                maxBpm = (140..180).random(),
-                minBpm = (60..80).random(),
-                zoneMinutes = mapOf(
-                    "zone1" to (5..15).random(),
-                    "zone2" to (15..25).random(),
-                    "zone3" to (10..20).random(),
-                    "zone4" to (0..5).random(),
-                    "zone5" to (0..3).random()
-                )
-            )
-        }
+    companion object {
+        // Devices can upload heart rate a while after it was measured, later edits are
+        // caught by HealthChangesSync invalidating the stored range
+        private val STORE_SETTLE_TIME: Duration = Duration.ofHours(6)
     }
-}
\ No newline at end of file
+}
+
+private data class HealthReads(
+    val heartRateSamples: HeartRateSampleBuffer,
+    val exercise: List<ExerciseSessionRecord>,
+    val heartRateStats: HeartRateStats?,
+    val stepTotals: Map<LocalDate, Long>?,
+    val dailyZoneMinutes: Map<LocalDate, Map<String, Int>>
+)
+
+private data class DailyAggregates(
+    val heartRateStats: List<HeartRateStats>?,
+    val stepTotals: Map<LocalDate, Long>?
+)
+
+// One run of unsealed days as read from the source, null where a read failed
+private class DayRead(
+    val readStart: Instant,
+    val readEnd: Instant,
+    val firstDay: LocalDate,
+    // Exclusive, the end of the run or of the settled days, whichever is earlier
+    val sealableBefore: LocalDate,
+    val stats: List<HeartRateStats>?,
+    val steps: Map<LocalDate, Long>?
+)
\ No newline at end of file
@@ -0,0 +1,42 @@
+package com.brainheartfitness.data.repository
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.async
+import java.time.LocalDate
+import java.util.concurrent.ConcurrentHashMap
+
+enum class QueryKind {
+    DAILY_SUMMARY,
+    WEEKLY_SUMMARY,
+    WEEKLY_PROGRESS
+}
+
+data class QueryKey(
+    val kind: QueryKind,
+    val startDate: LocalDate,
+    val endDate: LocalDate,
+    // What the result was computed with, a change to either is a different query
+    val zoneProfileVersion: Long,
+    val goalsVersion: Long
+)
+
+// Coalesces concurrent identical requests: callers asking for a key that is already
+// being computed await the same result instead of starting another load.
+// Work runs in the given scope so one caller being cancelled doesn't fail the others.
+class SingleFlight<K : Any, V>(private val scope: CoroutineScope) {
+    private val inFlight = ConcurrentHashMap<K, Deferred<V>>()
+    
+    suspend fun run(key: K, block: suspend () -> V): V {
+        var created: Deferred<V>? = null
+        val deferred = inFlight.computeIfAbsent(key) {
+            scope.async(start = CoroutineStart.LAZY) { block() }.also { created = it }
+        }
+        if (deferred === created) {
+            deferred.invokeOnCompletion { inFlight.remove(key, deferred) }
+            deferred.start()
+        }
+        return deferred.await()
+    }
+}
\ No newline at end of file
@@ -0,0 +1,256 @@
+package com.brainheartfitness.data.repository
+
+import android.util.LruCache
+import com.brainheartfitness.data.local.HealthDatabase
+import com.brainheartfitness.data.local.SummaryCacheEntity
+import com.brainheartfitness.data.model.DailyHealthSummary
+import com.brainheartfitness.data.model.DailyProgress
+import com.brainheartfitness.data.model.HeartRateSession
+import com.brainheartfitness.data.model.WeeklyHealthSummary
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.time.DayOfWeek
+import java.time.Instant
+import java.time.LocalDate
+import java.time.ZoneId
+
+// Writes one kind of summary to bytes for the disk tier and reads it back
+interface SummaryCodec<V : Any> {
+    fun encode(value: V, output: DataOutputStream)
+    fun decode(input: DataInputStream): V
+}
+
+// Computed summaries, keyed by QueryKey with the zone profile and goals versions included,
+// and dropped when a sync reports a change inside their range. Ranges of sealed days are
+// kept in memory and on disk with no expiry, ranges of recent days only in memory for the
+// TTL the freshness policy gives them.
+class SummaryCache(
+    database: HealthDatabase,
+    private val freshnessPolicy: FreshnessPolicy
+) {
+    private class Entry(val value: Any, val weight: Int, val expiresAtMillis: Long = Long.MAX_VALUE)
+    
+    private val dao = database.summaryCacheDao()
+    private val lock = Any()
+    
+    // Weighed by encoded size, a week with many sessions costs more than an empty day
+    private val memory = object : LruCache<QueryKey, Entry>(MEMORY_BUDGET_BYTES) {
+        override fun sizeOf(key: QueryKey, value: Entry): Int = value.weight
+    }
+    
+    // Bumped by every invalidation, so a load that started before one doesn't store
+    // what it computed from data that has since changed
+    @Volatile
+    private var generation = 0L
+    
+    suspend fun <V : Any> getOrLoad(key: QueryKey, codec: SummaryCodec<V>, load: suspend () -> V): V {
+        memory.get(key)?.let {
+            @Suppress("UNCHECKED_CAST")
+            if (System.currentTimeMillis() < it.expiresAtMillis) return it.value as V
+        }
+        
+        val startGeneration = generation
+        val ttl = freshnessPolicy.ttlFor(key.startDate, key.endDate, LocalDate.now())
+        if (ttl != null) {
+            val value = load()
+            synchronized(lock) {
+                if (generation == startGeneration) {
+                    memory.put(key, Entry(value, RECENT_ENTRY_WEIGHT, System.currentTimeMillis() + ttl.toMillis()))
+                }
+            }
+            return value
+        }
+        
+        val stored = withContext(Dispatchers.IO) { readDisk(key, codec) }
+        if (stored != null) {
+            synchronized(lock) {
+                if (generation == startGeneration) memory.put(key, Entry(stored.first, stored.second))
+            }
+            return stored.first
+        }
+        
+        val value = load()
+        withContext(Dispatchers.IO) {
+            val bytes = ByteArrayOutputStream().also { codec.encode(value, DataOutputStream(it)) }.toByteArray()
+            synchronized(lock) {
+                if (generation == startGeneration) {
+                    memory.put(key, Entry(value, bytes.size + ENTRY_OVERHEAD_BYTES))
+                    writeDisk(key, bytes)
+                }
+            }
+        }
+        return value
+    }
+    
+    suspend fun invalidate(startTime: Instant, endTime: Instant) = withContext(Dispatchers.IO) {
+        val startMillis = startTime.toEpochMilli()
+        val endMillis = endTime.toEpochMilli()
+        synchronized(lock) {
+            generation++
+            memory.snapshot().keys
+                .filter { key -> startMillisOf(key) < endMillis && endMillisOf(key) > startMillis }
+                .forEach { memory.remove(it) }
+            dao.deleteOverlapping(startMillis, endMillis)
+        }
+    }
+    
+    // For changes that can't be placed in time, such as an expired changes token
+    suspend fun invalidateAll() = withContext(Dispatchers.IO) {
+        synchronized(lock) {
+            generation++
+            memory.evictAll()
+            dao.deleteAll()
+        }
+    }
+    
+    private fun <V : Any> readDisk(key: QueryKey, codec: SummaryCodec<V>): Pair<V, Int>? {
+        val entry = dao.get(
+            key.kind.ordinal,
+            key.startDate.toEpochDay(),
+            key.endDate.toEpochDay(),
+            key.zoneProfileVersion,
+            key.goalsVersion
+        ) ?: return null
+        return try {
+            codec.decode(DataInputStream(ByteArrayInputStream(entry.data))) to entry.data.size + ENTRY_OVERHEAD_BYTES
+        } catch (e: Exception) {
+            // Written by an older layout, compute it again
+            null
+        }
+    }
+    
+    private fun writeDisk(key: QueryKey, bytes: ByteArray) {
+        try {
+            dao.insert(
+                SummaryCacheEntity(
+                    kind = key.kind.ordinal,
+                    startDate = key.startDate.toEpochDay(),
+                    endDate = key.endDate.toEpochDay(),
+                    zoneProfileVersion = key.zoneProfileVersion,
+                    goalsVersion = key.goalsVersion,
+                    startMillis = startMillisOf(key),
+                    endMillis = endMillisOf(key),
+                    data = bytes
+                )
+            )
+        } catch (e: Exception) {
+            // The memory tier still has it
+        }
+    }
+    
+    private fun startMillisOf(key: QueryKey): Long =
+        key.startDate.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli()
+    
+    private fun endMillisOf(key: QueryKey): Long =
+        key.endDate.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli()
+    
+    companion object {
+        private const val MEMORY_BUDGET_BYTES = 256 * 1024
+        private const val ENTRY_OVERHEAD_BYTES = 64
+        // Recent entries aren't encoded, they are few and short-lived
+        private const val RECENT_ENTRY_WEIGHT = 4 * 1024
+    }
+}
+
+object DailySummaryCodec : SummaryCodec<DailyHealthSummary> {
+    override fun encode(value: DailyHealthSummary, output: DataOutputStream) {
+        output.writeLong(value.date.toEpochDay())
+        output.writeInt(value.totalMinutes)
+        output.writeZoneMinutes(value.zoneBreakdown)
+        output.writeSessions(value.sessions)
+        output.writeInt(value.averageHeartRate)
+        output.writeInt(value.maxHeartRate)
+        output.writeInt(value.minHeartRate)
+        output.writeInt(value.steps)
+    }
+    
+    override fun decode(input: DataInputStream) = DailyHealthSummary(
+        date = LocalDate.ofEpochDay(input.readLong()),
+        totalMinutes = input.readInt(),
+        zoneBreakdown = input.readZoneMinutes(),
+        sessions = input.readSessions(),
+        averageHeartRate = input.readInt(),
+        maxHeartRate = input.readInt(),
+        minHeartRate = input.readInt(),
+        steps = input.readInt()
+    )
+}
+
+object WeeklySummaryCodec : SummaryCodec<WeeklyHealthSummary> {
+    override fun encode(value: WeeklyHealthSummary, output: DataOutputStream) {
+        output.writeInt(value.totalMinutes)
+        output.writeZoneMinutes(value.zoneBreakdown)
+        output.writeSessions(value.sessions)
+        output.writeInt(value.averageHeartRate)
+        output.writeInt(value.maxHeartRate)
+        output.writeInt(value.minHeartRate)
+        output.writeInt(value.totalSteps)
+    }
+    
+    override fun decode(input: DataInputStream) = WeeklyHealthSummary(
+        totalMinutes = input.readInt(),
+        zoneBreakdown = input.readZoneMinutes(),
+        sessions = input.readSessions(),
+        averageHeartRate = input.readInt(),
+        maxHeartRate = input.readInt(),
+        minHeartRate = input.readInt(),
+        totalSteps = input.readInt()
+    )
+}
+
+object WeeklyProgressCodec : SummaryCodec<List<DailyProgress>> {
+    override fun encode(value: List<DailyProgress>, output: DataOutputStream) {
+        output.writeInt(value.size)
+        value.forEach { progress ->
+            output.writeByte(progress.day.value)
+            output.writeLong(progress.date.toEpochDay())
+            output.writeInt(progress.zone2PlusMinutes)
+        }
+    }
+    
+    override fun decode(input: DataInputStream) = List(input.readInt()) {
+        DailyProgress(
+            day = DayOfWeek.of(input.readByte().toInt()),
+            date = LocalDate.ofEpochDay(input.readLong()),
+            zone2PlusMinutes = input.readInt()
+        )
+    }
+}
+
+private fun DataOutputStream.writeZoneMinutes(zoneMinutes: Map<String, Int>) {
+    writeInt(zoneMinutes.size)
+    zoneMinutes.forEach { (zoneId, minutes) ->
+        writeUTF(zoneId)
+        writeInt(minutes)
+    }
+}
+
+private fun DataInputStream.readZoneMinutes(): Map<String, Int> =
+    (0 until readInt()).associate { readUTF() to readInt() }
+
+private fun DataOutputStream.writeSessions(sessions: List<HeartRateSession>) {
+    writeInt(sessions.size)
+    sessions.forEach { session ->
+        writeLong(session.startTime.toEpochMilli())
+        writeLong(session.endTime.toEpochMilli())
+        writeInt(session.averageBpm)
+        writeInt(session.maxBpm)
+        writeInt(session.minBpm)
+        writeZoneMinutes(session.zoneMinutes)
+    }
+}
+
+private fun DataInputStream.readSessions(): List<HeartRateSession> = List(readInt()) {
+    HeartRateSession(
+        startTime = Instant.ofEpochMilli(readLong()),
+        endTime = Instant.ofEpochMilli(readLong()),
+        averageBpm = readInt(),
+        maxBpm = readInt(),
+        minBpm = readInt(),
+        zoneMinutes = readZoneMinutes()
+    )
+}
\ No newline at end of file
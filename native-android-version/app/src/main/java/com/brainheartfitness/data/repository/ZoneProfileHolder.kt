@@ -0,0 +1,16 @@
+package com.brainheartfitness.data.repository
+
+import com.brainheartfitness.data.model.ZoneProfile
+
+// The zone profile summaries are computed with. Swapped as a whole, so a reader sees the
+// old boundaries and goals or the new ones, never a mix. The profile's versions go into
+// every cache key, so nothing computed with the old one is served after a swap.
+class ZoneProfileHolder {
+    @Volatile
+    var current: ZoneProfile = ZoneProfile.DEFAULT
+        private set
+    
+    fun swap(profile: ZoneProfile) {
+        current = profile
+    }
+}
\ No newline at end of file
@@ -1,8 +1,26 @@
 package com.brainheartfitness.di
 
 import android.content.Context
+import androidx.health.connect.client.HealthConnectClient
+import androidx.room.Room
+import com.brainheartfitness.data.health.HealthChangesSync
 import com.brainheartfitness.data.health.HealthConnectManager
+import com.brainheartfitness.data.health.HealthConnectScheduler
+import com.brainheartfitness.data.health.HealthDataSource
+import com.brainheartfitness.data.health.HealthTrace
+import com.brainheartfitness.data.health.HeartRateSourceMerger
+import com.brainheartfitness.data.health.SourcePriorityPolicy
+import com.brainheartfitness.data.health.SyntheticHealthData
+import com.brainheartfitness.data.local.HealthDatabase
+import com.brainheartfitness.data.local.ChunkedSampleStorage
+import com.brainheartfitness.data.local.HeartRateSampleStore
+import com.brainheartfitness.data.local.KnownRecordStore
+import com.brainheartfitness.data.local.SealedDayStore
+import com.brainheartfitness.data.repository.FreshnessPolicy
 import com.brainheartfitness.data.repository.HealthDataRepository
+import com.brainheartfitness.data.repository.HeartRateReadMode
+import com.brainheartfitness.data.repository.SummaryCache
+import com.brainheartfitness.data.repository.ZoneProfileHolder
 import dagger.Module
 import dagger.Provides
 import dagger.hilt.InstallIn
@@ -14,15 +32,148 @@ import javax.inject.Singleton
 @InstallIn(SingletonComponent::class)
 object AppModule {
     
+    @Provides
+    @Singleton
+    fun provideHealthConnectScheduler(): HealthConnectScheduler = HealthConnectScheduler()
+    
+    @Provides
+    @Singleton
+    fun provideHealthConnectClient(
+        @ApplicationContext context: Context
+    ): HealthConnectClient = HealthConnectClient.getOrCreate(context)
+    
+    @Provides
+    @Singleton
+    fun provideSyntheticHealthData(): SyntheticHealthData = SyntheticHealthData()
+    
     @Provides
     @Singleton
     fun provideHealthConnectManager(
+        @ApplicationContext context: Context,
+        healthConnectClient: HealthConnectClient,
+        scheduler: HealthConnectScheduler,
+        heartRateSourceMerger: HeartRateSourceMerger
+    ): HealthConnectManager = HealthConnectManager(
+        context,
+        healthConnectClient,
+        scheduler,
+        heartRateSourceMerger,
+        HealthConnectManager.DEFAULT_PAGE_SIZE,
+        HealthTrace.recorderFor(context)
+    )
+    
+    @Provides
+    @Singleton
+    fun provideHealthDataSource(
+        @ApplicationContext context: Context,
+        healthConnectManager: HealthConnectManager,
+        syntheticHealthData: SyntheticHealthData,
+        heartRateSourceMerger: HeartRateSourceMerger
+    ): HealthDataSource = HealthTrace.selectDataSource(
+        context,
+        healthConnectManager,
+        syntheticHealthData,
+        heartRateSourceMerger
+    )
+    
+    @Provides
+    @Singleton
+    fun provideHealthChangesSync(
+        healthConnectManager: HealthConnectManager,
+        heartRateSampleStore: HeartRateSampleStore,
+        summaryCache: SummaryCache,
+        sealedDayStore: SealedDayStore,
+        knownRecordStore: KnownRecordStore,
+        heartRateReadMode: HeartRateReadMode
+    ): HealthChangesSync = HealthChangesSync(
+        healthConnectManager,
+        heartRateSampleStore,
+        summaryCache,
+        sealedDayStore,
+        knownRecordStore,
+        heartRateReadMode
+    )
+    
+    @Provides
+    @Singleton
+    fun provideHealthDatabase(
         @ApplicationContext context: Context
-    ): HealthConnectManager = HealthConnectManager(context)
+    ): HealthDatabase = Room.databaseBuilder(context, HealthDatabase::class.java, HealthDatabase.NAME)
+        // Everything stored can be read again from Health Connect
+        .fallbackToDestructiveMigration()
+        .build()
+    
+    @Provides
+    @Singleton
+    fun provideHeartRateSampleStore(
+        database: HealthDatabase,
+        heartRateSourceMerger: HeartRateSourceMerger
+    ): HeartRateSampleStore = HeartRateSampleStore(
+        database,
+        heartRateSourceMerger,
+        // Compressed chunks written in the same transaction as their covered range
+        ChunkedSampleStorage(database)
+    )
+    
+    @Provides
+    @Singleton
+    fun provideFreshnessPolicy(): FreshnessPolicy = FreshnessPolicy()
+    
+    @Provides
+    @Singleton
+    fun provideZoneProfileHolder(): ZoneProfileHolder = ZoneProfileHolder()
+    
+    @Provides
+    @Singleton
+    fun provideKnownRecordStore(database: HealthDatabase): KnownRecordStore = KnownRecordStore(database)
+    
+    @Provides
+    @Singleton
+    fun provideSealedDayStore(database: HealthDatabase): SealedDayStore = SealedDayStore(database)
+    
+    @Provides
+    @Singleton
+    fun provideSummaryCache(
+        database: HealthDatabase,
+        freshnessPolicy: FreshnessPolicy
+    ): SummaryCache = SummaryCache(database, freshnessPolicy)
+    
+    @Provides
+    @Singleton
+    fun provideSourcePriorityPolicy(): SourcePriorityPolicy = SourcePriorityPolicy()
+    
+    @Provides
+    @Singleton
+    fun provideHeartRateSourceMerger(
+        policy: SourcePriorityPolicy
+    ): HeartRateSourceMerger = HeartRateSourceMerger(policy)
+    
+    // The sync mirrors heart rate the way the repository reads it
+    @Provides
+    @Singleton
+    fun provideHeartRateReadMode(): HeartRateReadMode = HeartRateReadMode.EXERCISE_SCOPED
     
     @Provides
     @Singleton
     fun provideHealthDataRepository(
-        healthConnectManager: HealthConnectManager
-    ): HealthDataRepository = HealthDataRepository(healthConnectManager)
+        healthDataSource: HealthDataSource,
+        healthChangesSync: HealthChangesSync,
+        heartRateSourceMerger: HeartRateSourceMerger,
+        heartRateSampleStore: HeartRateSampleStore,
+        summaryCache: SummaryCache,
+        sealedDayStore: SealedDayStore,
+        freshnessPolicy: FreshnessPolicy,
+        zoneProfileHolder: ZoneProfileHolder,
+        heartRateReadMode: HeartRateReadMode
+    ): HealthDataRepository = HealthDataRepository(
+        healthDataSource,
+        healthChangesSync,
+        heartRateSourceMerger,
+        heartRateSampleStore,
+        summaryCache,
+        sealedDayStore,
+        freshnessPolicy,
+        zoneProfileHolder,
+        heartRateReadMode
+    )
 }
\ No newline at end of file
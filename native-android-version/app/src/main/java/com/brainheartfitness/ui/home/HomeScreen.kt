@@ -15,9 +15,10 @@ import androidx.compose.ui.res.stringResource
 import androidx.compose.ui.text.style.TextAlign
 import androidx.compose.ui.unit.dp
 import androidx.hilt.navigation.compose.hiltViewModel
+import androidx.lifecycle.Lifecycle
+import androidx.lifecycle.compose.LifecycleEventEffect
 import androidx.lifecycle.compose.collectAsStateWithLifecycle
 import com.brainheartfitness.R
-import com.brainheartfitness.data.health.HealthConnectManager
 import com.brainheartfitness.data.model.HealthConnectState
 import com.brainheartfitness.data.model.TimeRange
 import com.brainheartfitness.ui.components.*
@@ -28,23 +29,17 @@ fun HomeScreen(
     viewModel: HomeViewModel = hiltViewModel()
 ) {
     val uiState by viewModel.uiState.collectAsStateWithLifecycle()
-    val context = LocalContext.current
     
-    // Health Connect permission launcher
-    val healthConnectManager: HealthConnectManager = hiltViewModel<HomeViewModel>().let {
-        // Access the health connect manager through dependency injection
-        // This is a simplified approach - in real implementation you'd inject this properly
-        androidx.compose.runtime.remember { HealthConnectManager(context) }
+    LifecycleEventEffect(Lifecycle.Event.ON_RESUME) {
+        viewModel.onResume()
     }
     
+    // Health Connect permission launcher
+    val permissionContract = remember { viewModel.createPermissionRequestContract() }
     val permissionLauncher = rememberLauncherForActivityResult(
-        contract = healthConnectManager.createPermissionRequestContract()
+        contract = permissionContract
     ) { granted ->
-        if (granted.isNotEmpty()) {
-            viewModel.onPermissionsGranted()
-        } else {
-            viewModel.onPermissionsDenied()
-        }
+        viewModel.onPermissionsResult(granted)
     }
     
     Column(
@@ -93,6 +88,11 @@ fun HomeScreen(
         
         Spacer(modifier = Modifier.height(16.dp))
         
+        if (uiState.isThrottled) {
+            ThrottledBanner()
+            Spacer(modifier = Modifier.height(16.dp))
+        }
+        
         // Main content based on state
         when (uiState.healthConnectState) {
             HealthConnectState.AVAILABLE -> {
@@ -123,7 +123,7 @@ fun HomeScreen(
                     // Permission request UI
                     PermissionRequestCard(
                         onRequestPermissions = {
-                            permissionLauncher.launch(healthConnectManager.getRequiredPermissions())
+                            permissionLauncher.launch(viewModel.getRequiredPermissions())
                         }
                     )
                 }
@@ -163,6 +163,23 @@ fun LoadingCard() {
     }
 }
 
+// Health Connect is rejecting calls for quota, what's shown may be late until it recovers
+@Composable
+fun ThrottledBanner() {
+    Card(
+        modifier = Modifier.fillMaxWidth(),
+        colors = CardDefaults.cardColors(
+            containerColor = MaterialTheme.colorScheme.secondaryContainer
+        )
+    ) {
+        Text(
+            text = stringResource(R.string.health_connect_throttled),
+            color = MaterialTheme.colorScheme.onSecondaryContainer,
+            modifier = Modifier.padding(16.dp)
+        )
+    }
+}
+
 @Composable
 fun ErrorCard(
     message: String,
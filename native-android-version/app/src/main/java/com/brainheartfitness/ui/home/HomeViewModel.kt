@@ -1,8 +1,10 @@
 package com.brainheartfitness.ui.home
 
+import androidx.health.connect.client.permission.HealthPermission
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
 import com.brainheartfitness.data.health.HealthConnectManager
+import com.brainheartfitness.data.health.ThrottleState
 import com.brainheartfitness.data.model.*
 import com.brainheartfitness.data.repository.HealthDataRepository
 import dagger.hilt.android.lifecycle.HiltViewModel
@@ -18,6 +20,7 @@ data class HomeUiState(
     val healthConnectState: HealthConnectState = HealthConnectState.NOT_SUPPORTED,
     val hasPermissions: Boolean = false,
     val isLoading: Boolean = true,
+    val isThrottled: Boolean = false,
     val currentData: ProgressData? = null,
     val error: String? = null
 )
@@ -33,6 +36,7 @@ class HomeViewModel @Inject constructor(
     
     init {
         checkHealthConnectAvailability()
+        observeThrottling()
     }
     
     fun setActiveTab(timeRange: TimeRange) {
@@ -43,6 +47,15 @@ class HomeViewModel @Inject constructor(
         }
     }
     
+    fun onPermissionsResult(granted: Set<HealthPermission>) {
+        healthConnectManager.onPermissionsResult(granted)
+        if (granted.isNotEmpty()) {
+            onPermissionsGranted()
+        } else {
+            onPermissionsDenied()
+        }
+    }
+    
     fun onPermissionsGranted() {
         _uiState.value = _uiState.value.copy(hasPermissions = true)
         loadWeeklyData() // Load initial data
@@ -56,6 +69,36 @@ class HomeViewModel @Inject constructor(
         checkHealthConnectAvailability()
     }
     
+    // Permissions may have been granted or revoked in system settings while the app was in
+    // the background. MainActivity has dropped the cached answer by now, so this asks
+    // Health Connect and only acts on a change.
+    fun onResume() {
+        if (_uiState.value.healthConnectState != HealthConnectState.AVAILABLE) return
+        viewModelScope.launch {
+            try {
+                val hasPermissions = healthConnectManager.hasAllPermissions()
+                if (hasPermissions != _uiState.value.hasPermissions) {
+                    _uiState.value = _uiState.value.copy(hasPermissions = hasPermissions)
+                    if (hasPermissions) loadWeeklyData()
+                }
+            } catch (e: Exception) {
+                // Keep the current state, the next resume or retry checks again
+            }
+        }
+    }
+    
+    fun createPermissionRequestContract() = healthConnectManager.createPermissionRequestContract()
+    
+    fun getRequiredPermissions() = healthConnectManager.getRequiredPermissions()
+    
+    private fun observeThrottling() {
+        viewModelScope.launch {
+            healthConnectManager.throttleState.collect { state ->
+                _uiState.value = _uiState.value.copy(isThrottled = state is ThrottleState.Throttled)
+            }
+        }
+    }
+    
     private fun checkHealthConnectAvailability() {
         viewModelScope.launch {
             try {
@@ -79,12 +122,21 @@ class HomeViewModel @Inject constructor(
     
     private suspend fun checkPermissions() {
         try {
-            val hasPermissions = healthConnectManager.hasAllPermissions()
-            _uiState.value = _uiState.value.copy(hasPermissions = hasPermissions)
-            
-            if (hasPermissions) {
+            // Start loading from the cached snapshot, then confirm it with Health Connect
+            val cachedPermissions = healthConnectManager.getCachedPermissionState()
+            if (cachedPermissions == true) {
+                _uiState.value = _uiState.value.copy(hasPermissions = true)
                 loadWeeklyData() // Load initial data
             }
+            
+            val hasPermissions = healthConnectManager.hasAllPermissions()
+            if (hasPermissions != cachedPermissions) {
+                _uiState.value = _uiState.value.copy(hasPermissions = hasPermissions)
+                
+                if (hasPermissions) {
+                    loadWeeklyData() // Load initial data
+                }
+            }
         } catch (e: Exception) {
             _uiState.value = _uiState.value.copy(
                 error = e.message,
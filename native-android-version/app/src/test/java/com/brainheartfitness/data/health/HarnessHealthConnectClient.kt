@@ -0,0 +1,109 @@
+package com.brainheartfitness.data.health
+
+import androidx.health.connect.client.HealthConnectClient
+import androidx.health.connect.client.aggregate.AggregationResult
+import androidx.health.connect.client.aggregate.AggregationResultGroupedByDuration
+import androidx.health.connect.client.aggregate.AggregationResultGroupedByPeriod
+import androidx.health.connect.client.records.Record
+import androidx.health.connect.client.request.AggregateGroupByDurationRequest
+import androidx.health.connect.client.request.AggregateGroupByPeriodRequest
+import androidx.health.connect.client.request.AggregateRequest
+import androidx.health.connect.client.request.ChangesTokenRequest
+import androidx.health.connect.client.request.ReadRecordsRequest
+import androidx.health.connect.client.response.ChangesResponse
+import androidx.health.connect.client.response.ReadRecordsResponse
+import kotlinx.coroutines.delay
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+enum class HarnessCall {
+    READ_RECORDS,
+    AGGREGATE,
+    CHANGES
+}
+
+data class HarnessConfig(
+    // Added before each call to stand in for IPC and provider work
+    val latencyMillis: Map<HarnessCall, Long> = emptyMap(),
+    val defaultLatencyMillis: Long = 0L,
+    // Page size HealthConnectManager uses when a read doesn't ask for one
+    val pageSize: Int = HealthConnectManager.DEFAULT_PAGE_SIZE,
+    // Calls, numbered from 1 across all kinds, that are rejected for quota
+    val throttledCalls: Set<Int> = emptySet(),
+    // Rejects every nth call for quota when above zero
+    val throttleEvery: Int = 0
+) {
+    fun latencyFor(call: HarnessCall): Long = latencyMillis[call] ?: defaultLatencyMillis
+    
+    fun isThrottled(callNumber: Int): Boolean =
+        callNumber in throttledCalls || (throttleEvery > 0 && callNumber % throttleEvery == 0)
+}
+
+// Wraps a client, normally FakeHealthConnectClient, adding latency and quota errors to the
+// calls the data layer makes and counting them. Everything else goes straight through.
+class HarnessHealthConnectClient(
+    private val delegate: HealthConnectClient,
+    private val config: HarnessConfig = HarnessConfig()
+) : HealthConnectClient by delegate {
+    private val callCount = AtomicInteger(0)
+    private val throttledCount = AtomicInteger(0)
+    private val callsByKind = ConcurrentHashMap<HarnessCall, AtomicInteger>()
+    
+    val totalCalls: Int get() = callCount.get()
+    val throttledCalls: Int get() = throttledCount.get()
+    
+    fun callsOf(call: HarnessCall): Int = callsByKind[call]?.get() ?: 0
+    
+    override suspend fun <T : Record> readRecords(request: ReadRecordsRequest<T>): ReadRecordsResponse<T> =
+        intercept(HarnessCall.READ_RECORDS) { delegate.readRecords(request) }
+    
+    override suspend fun aggregate(request: AggregateRequest): AggregationResult =
+        intercept(HarnessCall.AGGREGATE) { delegate.aggregate(request) }
+    
+    override suspend fun aggregateGroupByDuration(
+        request: AggregateGroupByDurationRequest
+    ): List<AggregationResultGroupedByDuration> =
+        intercept(HarnessCall.AGGREGATE) { delegate.aggregateGroupByDuration(request) }
+    
+    override suspend fun aggregateGroupByPeriod(
+        request: AggregateGroupByPeriodRequest
+    ): List<AggregationResultGroupedByPeriod> =
+        intercept(HarnessCall.AGGREGATE) { delegate.aggregateGroupByPeriod(request) }
+    
+    override suspend fun getChangesToken(request: ChangesTokenRequest): String =
+        intercept(HarnessCall.CHANGES) { delegate.getChangesToken(request) }
+    
+    override suspend fun getChanges(changesToken: String): ChangesResponse =
+        intercept(HarnessCall.CHANGES) { delegate.getChanges(changesToken) }
+    
+    fun resetCounts() {
+        callCount.set(0)
+        throttledCount.set(0)
+        callsByKind.clear()
+    }
+    
+    private suspend fun <T> intercept(call: HarnessCall, block: suspend () -> T): T {
+        val callNumber = callCount.incrementAndGet()
+        callsByKind.computeIfAbsent(call) { AtomicInteger(0) }.incrementAndGet()
+        delay(config.latencyFor(call))
+        if (config.isThrottled(callNumber)) {
+            throttledCount.incrementAndGet()
+            // What HealthConnectClient throws for a rejected call on API 34+, so
+            // HealthConnectScheduler backs off as it would on device
+            throw IllegalStateException(RATE_LIMIT_MESSAGE)
+        }
+        return try {
+            block()
+        } catch (e: NotImplementedError) {
+            // The fake doesn't compute aggregates unless they are stubbed. Surface it as a
+            // failed call so the manager takes its fallback path instead of crashing the test.
+            throw UnsupportedOperationException(e)
+        }
+    }
+    
+    companion object {
+        // The platform's message for ERROR_RATE_LIMIT_EXCEEDED, the only part of the
+        // HealthConnectException the client keeps when it converts it
+        const val RATE_LIMIT_MESSAGE = "Request rejected: rate limited request quota has been exceeded"
+    }
+}
\ No newline at end of file
@@ -0,0 +1,161 @@
+package com.brainheartfitness.data.health
+
+import android.os.Build
+import androidx.health.connect.client.records.HeartRateRecord
+import androidx.health.connect.client.request.ReadRecordsRequest
+import androidx.health.connect.client.time.TimeRangeFilter
+import com.brainheartfitness.data.repository.HeartRateReadMode
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.time.Instant
+import java.time.LocalDate
+import java.time.ZoneOffset
+import java.util.TimeZone
+
+// The sync on HealthDataHarness, over a window of the last few days, mirroring all heart rate
+// unless a test says otherwise. What it derives is checked in the store, the only place the
+// sync keeps anything.
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [Build.VERSION_CODES.UPSIDE_DOWN_CAKE])
+class HealthChangesSyncTest {
+    private lateinit var defaultTimeZone: TimeZone
+    private lateinit var harness: HealthDataHarness
+    private lateinit var startDate: LocalDate
+    private lateinit var today: LocalDate
+    private lateinit var windowStart: Instant
+    private lateinit var seededEnd: Instant
+    private var seededSamples = 0
+    
+    @Before
+    fun setUp() = runBlocking {
+        // The sync cuts days in the system zone, the synthetic data in UTC
+        defaultTimeZone = TimeZone.getDefault()
+        TimeZone.setDefault(TimeZone.getTimeZone(ZoneOffset.UTC))
+        
+        harness = HealthDataHarness(heartRateReadMode = HeartRateReadMode.FULL)
+        today = LocalDate.now(ZoneOffset.UTC)
+        startDate = today.minusDays(WINDOW_DAYS)
+        windowStart = startDate.atStartOfDay(ZoneOffset.UTC).toInstant()
+        seededEnd = today.atStartOfDay(ZoneOffset.UTC).toInstant()
+        seededSamples = harness.seed(startDate, today).heartRateSamples
+    }
+    
+    @After
+    fun tearDown() {
+        harness.database.close()
+        TimeZone.setDefault(defaultTimeZone)
+    }
+    
+    @Test
+    fun seedStoresTheWindow() = runBlocking {
+        val result = harness.sync.sync(windowStart)
+        
+        assertTrue(result.fullReload)
+        assertFalse(result.failed)
+        assertTrue(harness.store.isCovered(windowStart, seededEnd))
+        assertEquals(seededSamples, harness.store.getHeartRateSamples(windowStart, seededEnd).size)
+    }
+    
+    @Test
+    fun coldStartResumesFromTheStoredToken() = runBlocking {
+        harness.sync.sync(windowStart)
+        
+        // A new process: nothing but the database survives
+        val restarted = HealthChangesSync(
+            harness.manager,
+            harness.store,
+            harness.summaryCache,
+            harness.sealedDayStore,
+            harness.knownRecordStore,
+            HeartRateReadMode.FULL
+        )
+        harness.client.resetCounts()
+        val result = restarted.sync(windowStart)
+        
+        assertFalse(result.fullReload)
+        assertFalse(result.failed)
+        assertEquals(0, result.upserts)
+        // At most the moments since the last sync are read again, not the window
+        assertTrue(harness.client.callsOf(HarnessCall.READ_RECORDS) <= 1)
+        assertTrue(harness.store.isCovered(windowStart, seededEnd))
+    }
+    
+    @Test
+    fun deletedRecordIsRemovedFromTheStore() = runBlocking {
+        harness.sync.sync(windowStart)
+        val records = harness.fakeClient.readRecords(
+            ReadRecordsRequest(HeartRateRecord::class, TimeRangeFilter.between(windowStart, seededEnd))
+        ).records
+        val deleted = records[records.size / 2]
+        harness.fakeClient.deleteRecords(HeartRateRecord::class, listOf(deleted.metadata.id), emptyList())
+        
+        val result = harness.sync.sync(windowStart)
+        
+        assertFalse(result.fullReload)
+        assertEquals(1, result.deletions)
+        // Read again, so the window is still served from the store
+        assertTrue(harness.store.isCovered(windowStart, seededEnd))
+        assertEquals(0, harness.store.getHeartRateSamples(deleted.startTime, deleted.endTime).size)
+        assertEquals(
+            seededSamples - deleted.samples.size,
+            harness.store.getHeartRateSamples(windowStart, seededEnd).size
+        )
+    }
+    
+    @Test
+    fun expiredTokenReadsTheWindowAgain() = runBlocking {
+        harness.sync.sync(windowStart)
+        harness.fakeClient.expireTokens()
+        
+        val result = harness.sync.sync(windowStart)
+        
+        assertTrue(result.fullReload)
+        assertFalse(result.failed)
+        assertTrue(harness.store.isCovered(windowStart, seededEnd))
+        assertEquals(seededSamples, harness.store.getHeartRateSamples(windowStart, seededEnd).size)
+        
+        // The new token is good again
+        assertFalse(harness.sync.sync(windowStart).fullReload)
+    }
+    
+    @Test
+    fun scopedSeedStoresOnlyTheExerciseWindows() = runBlocking {
+        val scoped = HealthDataHarness(heartRateReadMode = HeartRateReadMode.EXERCISE_SCOPED)
+        try {
+            // A week, so there is a workout to scope to
+            val scopedStart = today.minusDays(7)
+            val scopedWindowStart = scopedStart.atStartOfDay(ZoneOffset.UTC).toInstant()
+            scoped.seed(scopedStart, today)
+            val windows = ExerciseWindows.of(
+                scoped.synthetic.getWorkouts(scopedWindowStart, seededEnd).map { it.startTime to it.endTime },
+                scopedWindowStart,
+                seededEnd
+            )
+            assertTrue(windows.isNotEmpty())
+            
+            scoped.sync.sync(scopedWindowStart)
+            
+            assertFalse(scoped.store.isCovered(scopedWindowStart, seededEnd))
+            windows.forEach { (start, end) ->
+                assertTrue(scoped.store.isCovered(start, end))
+                var expected = 0
+                scoped.synthetic.readHeartRateSamples(start, end) { _, _ -> expected++ }
+                assertEquals(expected, scoped.store.getHeartRateSamples(start, end).size)
+            }
+        } finally {
+            scoped.database.close()
+        }
+    }
+    
+    companion object {
+        private const val WINDOW_DAYS = 3L
+    }
+}
\ No newline at end of file
@@ -0,0 +1,169 @@
+package com.brainheartfitness.data.health
+
+import android.os.Build
+import android.os.RemoteException
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+// The scheduler on its own, with timings shortened so backoff and refill take milliseconds.
+// Quota errors are thrown in the shapes HealthConnectClient uses, not the platform type.
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [Build.VERSION_CODES.UPSIDE_DOWN_CAKE])
+class HealthConnectSchedulerTest {
+    
+    @Test
+    fun quotaErrorConvertedByTheClientIsRetried() = runBlocking {
+        val scheduler = newScheduler()
+        var attempts = 0
+        
+        val result = scheduler.run {
+            if (++attempts == 1) throw IllegalStateException(HarnessHealthConnectClient.RATE_LIMIT_MESSAGE)
+            42
+        }
+        
+        assertEquals(42, result)
+        assertEquals(2, attempts)
+        assertEquals(ThrottleState.Normal, scheduler.throttleState.value)
+    }
+    
+    @Test
+    @Config(sdk = [Build.VERSION_CODES.P])
+    fun quotaErrorFromTheApkProviderIsRetried() = runBlocking {
+        val scheduler = newScheduler()
+        var attempts = 0
+        
+        val result = scheduler.run {
+            if (++attempts == 1) throw RemoteException(HarnessHealthConnectClient.RATE_LIMIT_MESSAGE)
+            42
+        }
+        
+        assertEquals(42, result)
+        assertEquals(2, attempts)
+    }
+    
+    @Test
+    fun quotaErrorIsFoundBehindAWrapper() = runBlocking {
+        val scheduler = newScheduler()
+        var attempts = 0
+        
+        scheduler.run {
+            if (++attempts == 1) {
+                throw RuntimeException(IllegalStateException(HarnessHealthConnectClient.RATE_LIMIT_MESSAGE))
+            }
+        }
+        
+        assertEquals(2, attempts)
+    }
+    
+    @Test
+    fun otherErrorsAreNotRetried() = runBlocking {
+        val scheduler = newScheduler()
+        var attempts = 0
+        
+        try {
+            scheduler.run {
+                attempts++
+                throw IllegalStateException("Request rejected: invalid state")
+            }
+            fail("Expected the error to be rethrown")
+        } catch (e: IllegalStateException) {
+            assertEquals("Request rejected: invalid state", e.message)
+        }
+        
+        assertEquals(1, attempts)
+    }
+    
+    @Test
+    fun exhaustedRetriesThrowAndResetTheThrottleState() = runBlocking {
+        val scheduler = newScheduler()
+        var attempts = 0
+        
+        try {
+            scheduler.run {
+                attempts++
+                throw IllegalStateException(HarnessHealthConnectClient.RATE_LIMIT_MESSAGE)
+            }
+            fail("Expected HealthConnectThrottledException")
+        } catch (e: HealthConnectThrottledException) {
+            assertTrue(e.cause is IllegalStateException)
+        }
+        
+        assertEquals(HealthConnectScheduler.MAX_RETRIES + 1, attempts)
+        assertEquals(ThrottleState.Normal, scheduler.throttleState.value)
+    }
+    
+    @Test
+    fun backoffDoublesUpToTheCeilingWithJitter() {
+        val scheduler = HealthConnectScheduler()
+        repeat(10) { attempt ->
+            val ceiling = minOf(
+                HealthConnectScheduler.MAX_BACKOFF_MILLIS,
+                HealthConnectScheduler.INITIAL_BACKOFF_MILLIS shl attempt
+            )
+            repeat(20) {
+                val backoff = scheduler.backoffMillis(attempt)
+                assertTrue("attempt $attempt waited $backoff", backoff in ceiling / 2..ceiling)
+            }
+        }
+    }
+    
+    @Test
+    fun retriesWaitOutTheBackoff() = runBlocking {
+        val scheduler = newScheduler()
+        var attempts = 0
+        
+        val start = System.nanoTime()
+        scheduler.run {
+            if (++attempts <= 2) throw IllegalStateException(HarnessHealthConnectClient.RATE_LIMIT_MESSAGE)
+        }
+        val elapsedMillis = (System.nanoTime() - start) / 1_000_000
+        
+        // At least half of each of the first two ceilings
+        assertTrue(elapsedMillis >= INITIAL_BACKOFF_MILLIS / 2 + INITIAL_BACKOFF_MILLIS)
+    }
+    
+    @Test
+    fun callsBeyondTheBucketWaitForTokens() = runBlocking {
+        val scheduler = newScheduler(bucketCapacity = 3)
+        
+        val start = System.nanoTime()
+        repeat(5) { scheduler.run { } }
+        val elapsedMillis = (System.nanoTime() - start) / 1_000_000
+        
+        // Three calls spend the bucket, the other two wait a token interval each
+        assertTrue(elapsedMillis >= 2 * TOKEN_INTERVAL_MILLIS - TOKEN_INTERVAL_MILLIS / 2)
+    }
+    
+    @Test
+    fun backgroundCallsLeaveTheForegroundReserve() = runBlocking {
+        val scheduler = newScheduler(bucketCapacity = HealthConnectScheduler.FOREGROUND_RESERVE + 1)
+        scheduler.run(CallPriority.BACKGROUND) { }
+        
+        // The bucket is down to the reserve: foreground calls may spend it, background ones wait
+        val foregroundMillis = measureMillis { scheduler.run(CallPriority.FOREGROUND) { } }
+        val backgroundMillis = measureMillis { scheduler.run(CallPriority.BACKGROUND) { } }
+        
+        assertTrue(foregroundMillis < TOKEN_INTERVAL_MILLIS)
+        assertTrue(backgroundMillis >= TOKEN_INTERVAL_MILLIS)
+    }
+    
+    private fun newScheduler(bucketCapacity: Int = HealthConnectScheduler.BUCKET_CAPACITY) =
+        HealthConnectScheduler(bucketCapacity, TOKEN_INTERVAL_MILLIS, INITIAL_BACKOFF_MILLIS)
+    
+    private suspend fun measureMillis(block: suspend () -> Unit): Long {
+        val start = System.nanoTime()
+        block()
+        return (System.nanoTime() - start) / 1_000_000
+    }
+    
+    companion object {
+        private const val TOKEN_INTERVAL_MILLIS = 100L
+        private const val INITIAL_BACKOFF_MILLIS = 40L
+    }
+}
\ No newline at end of file
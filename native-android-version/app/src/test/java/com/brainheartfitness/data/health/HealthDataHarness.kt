@@ -0,0 +1,159 @@
+package com.brainheartfitness.data.health
+
+import android.content.Context
+import androidx.health.connect.client.records.HeartRateRecord
+import androidx.health.connect.client.records.Record
+import androidx.health.connect.client.records.StepsRecord
+import androidx.health.connect.client.records.metadata.Metadata
+import androidx.health.connect.client.testing.FakeHealthConnectClient
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import com.brainheartfitness.data.local.ChunkedSampleStorage
+import com.brainheartfitness.data.local.HealthDatabase
+import com.brainheartfitness.data.local.HeartRateSampleStore
+import com.brainheartfitness.data.local.KnownRecordStore
+import com.brainheartfitness.data.local.SealedDayStore
+import com.brainheartfitness.data.repository.FreshnessPolicy
+import com.brainheartfitness.data.repository.HealthDataRepository
+import com.brainheartfitness.data.repository.HeartRateReadMode
+import com.brainheartfitness.data.repository.SummaryCache
+import com.brainheartfitness.data.repository.ZoneProfileHolder
+import com.brainheartfitness.ui.home.HomeUiState
+import com.brainheartfitness.ui.home.HomeViewModel
+import kotlinx.coroutines.flow.first
+import java.time.Duration
+import java.time.Instant
+import java.time.LocalDate
+import java.time.ZoneOffset
+
+data class SeedCounts(
+    val heartRateRecords: Int,
+    val heartRateSamples: Int,
+    val stepsRecords: Int,
+    val exerciseRecords: Int
+)
+
+data class Measured<T>(
+    val value: T,
+    val elapsed: Duration,
+    // Client calls made while measuring, throttled ones included
+    val calls: Int
+)
+
+// The real data layer on top of FakeHealthConnectClient, seeded from SyntheticHealthData,
+// so JVM tests can measure and assert repository and ViewModel load times under chosen
+// latency, paging and throttling. Needs Robolectric for the application Context.
+class HealthDataHarness(
+    val config: HarnessConfig = HarnessConfig(),
+    profile: SyntheticProfile = SyntheticProfile.SPARSE,
+    heartRateReadMode: HeartRateReadMode = HeartRateReadMode.EXERCISE_SCOPED,
+    private val context: Context = ApplicationProvider.getApplicationContext()
+) {
+    val synthetic = SyntheticHealthData(profile)
+    val fakeClient = FakeHealthConnectClient()
+    val client = HarnessHealthConnectClient(fakeClient, config)
+    
+    val scheduler = HealthConnectScheduler()
+    val merger = HeartRateSourceMerger(SourcePriorityPolicy())
+    val manager = HealthConnectManager(context, client, scheduler, merger, config.pageSize)
+    val database = Room.inMemoryDatabaseBuilder(context, HealthDatabase::class.java).build()
+    // The engine the app uses, see AppModule
+    val store = HeartRateSampleStore(database, merger, ChunkedSampleStorage(database))
+    val freshnessPolicy = FreshnessPolicy()
+    val sealedDayStore = SealedDayStore(database)
+    val summaryCache = SummaryCache(database, freshnessPolicy)
+    val knownRecordStore = KnownRecordStore(database)
+    val sync = HealthChangesSync(manager, store, summaryCache, sealedDayStore, knownRecordStore, heartRateReadMode)
+    val zoneProfiles = ZoneProfileHolder()
+    val repository = HealthDataRepository(
+        manager,
+        sync,
+        merger,
+        store,
+        summaryCache,
+        sealedDayStore,
+        freshnessPolicy,
+        zoneProfiles,
+        heartRateReadMode
+    )
+    
+    // Inserts synthetic data straight into the fake, bypassing latency and call counts.
+    // endDate is exclusive.
+    suspend fun seed(
+        startDate: LocalDate,
+        endDate: LocalDate,
+        samplesPerRecord: Int = DEFAULT_SAMPLES_PER_RECORD
+    ): SeedCounts {
+        val zoneId = synthetic.profile.zoneId
+        val startTime = startDate.atStartOfDay(zoneId).toInstant()
+        val endTime = endDate.atStartOfDay(zoneId).toInstant()
+        
+        val heartRateRecords = mutableListOf<HeartRateRecord>()
+        val samples = mutableListOf<HeartRateRecord.Sample>()
+        var sampleCount = 0
+        fun flushRecord() {
+            if (samples.isEmpty()) return
+            heartRateRecords.add(
+                HeartRateRecord(
+                    startTime = samples.first().time,
+                    startZoneOffset = ZoneOffset.UTC,
+                    endTime = samples.last().time.plusMillis(synthetic.profile.sampleIntervalMillis),
+                    endZoneOffset = ZoneOffset.UTC,
+                    samples = samples.toList(),
+                    metadata = Metadata.manualEntry()
+                )
+            )
+            samples.clear()
+        }
+        synthetic.readHeartRateSamples(startTime, endTime) { epochMillis, bpm ->
+            samples.add(HeartRateRecord.Sample(Instant.ofEpochMilli(epochMillis), bpm.toLong()))
+            sampleCount++
+            if (samples.size == samplesPerRecord) flushRecord()
+        }
+        flushRecord()
+        
+        val stepsRecords = synthetic.getDailyStepTotals(startDate, endDate).map { (date, steps) ->
+            StepsRecord(
+                startTime = date.atStartOfDay(zoneId).toInstant(),
+                startZoneOffset = ZoneOffset.UTC,
+                endTime = date.plusDays(1).atStartOfDay(zoneId).toInstant(),
+                endZoneOffset = ZoneOffset.UTC,
+                count = steps,
+                metadata = Metadata.manualEntry()
+            )
+        }
+        
+        val exerciseRecords = synthetic.getExerciseSessions(startTime, endTime)
+        
+        insert(heartRateRecords)
+        insert(stepsRecords)
+        insert(exerciseRecords)
+        return SeedCounts(heartRateRecords.size, sampleCount, stepsRecords.size, exerciseRecords.size)
+    }
+    
+    suspend fun <T> measure(block: suspend () -> T): Measured<T> {
+        val callsBefore = client.totalCalls
+        val start = System.nanoTime()
+        val value = block()
+        return Measured(value, Duration.ofNanos(System.nanoTime() - start), client.totalCalls - callsBefore)
+    }
+    
+    // ViewModel loads run on viewModelScope, so tests need a main dispatcher (e.g.
+    // Robolectric's main looper) for them to make progress
+    fun createHomeViewModel(): HomeViewModel = HomeViewModel(repository, manager)
+    
+    // Expects a fresh ViewModel, the load is over once data or an error has arrived
+    suspend fun measureHomeLoad(viewModel: HomeViewModel): Measured<HomeUiState> = measure {
+        viewModel.onPermissionsGranted()
+        viewModel.uiState.first { !it.isLoading && (it.currentData != null || it.error != null) }
+    }
+    
+    private suspend fun insert(records: List<Record>) {
+        records.chunked(INSERT_CHUNK_SIZE).forEach { fakeClient.insertRecords(it) }
+    }
+    
+    companion object {
+        const val DEFAULT_SAMPLES_PER_RECORD = 60
+        private const val INSERT_CHUNK_SIZE = 1000
+    }
+}
\ No newline at end of file
@@ -0,0 +1,128 @@
+package com.brainheartfitness.data.health
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+// The merge over hand-built spans, timings in seconds. Each source writes a distinct BPM so
+// the output shows which one every sample came from.
+class HeartRateSourceMergerTest {
+    
+    @Test
+    fun preferredSourceShadowsAnOverlap() {
+        val merged = merge(
+            SourcePriorityPolicy(preferredOrigins = listOf(WATCH, PHONE)),
+            span(PHONE, 0, 100, step = 5, bpm = 80),
+            span(WATCH, 0, 100, step = 10, bpm = 120)
+        )
+        
+        assertEquals((0L..100L step 10).map { Sample(it, 120, WATCH) }, merged)
+    }
+    
+    @Test
+    fun lowerRankedSourceFillsTheGaps() {
+        val merged = merge(
+            SourcePriorityPolicy(preferredOrigins = listOf(WATCH, PHONE)),
+            span(WATCH, 0, 50, step = 10, bpm = 120),
+            span(PHONE, 0, 150, step = 10, bpm = 80),
+            span(WATCH, 100, 150, step = 10, bpm = 120)
+        )
+        
+        val expected = (0L..50L step 10).map { Sample(it, 120, WATCH) } +
+            (60L..90L step 10).map { Sample(it, 80, PHONE) } +
+            (100L..150L step 10).map { Sample(it, 120, WATCH) }
+        assertEquals(expected, merged)
+    }
+    
+    @Test
+    fun unlistedSourcesRankBelowListedOnes() {
+        val merged = merge(
+            SourcePriorityPolicy(preferredOrigins = listOf(PHONE)),
+            span(WATCH, 0, 30, step = 10, bpm = 120),
+            span(PHONE, 0, 30, step = 10, bpm = 80)
+        )
+        
+        assertEquals((0L..30L step 10).map { Sample(it, 80, PHONE) }, merged)
+    }
+    
+    @Test
+    fun tiesBetweenUnlistedSourcesGoToThePackageName() {
+        val merged = merge(
+            SourcePriorityPolicy(),
+            span("com.b.app", 0, 30, step = 10, bpm = 90),
+            span("com.a.app", 0, 30, step = 10, bpm = 70)
+        )
+        
+        assertEquals((0L..30L step 10).map { Sample(it, 70, "com.a.app") }, merged)
+    }
+    
+    @Test
+    fun equalTimestampsAreEmittedOnce() {
+        // A source that wrote overlapping records, and another with samples at the same instants
+        val merged = merge(
+            SourcePriorityPolicy(preferredOrigins = listOf(WATCH)),
+            span(WATCH, 0, 20, step = 10, bpm = 120),
+            span(WATCH, 10, 30, step = 10, bpm = 120),
+            span(PHONE, 30, 40, step = 10, bpm = 80)
+        )
+        
+        assertEquals(
+            (0L..30L step 10).map { Sample(it, 120, WATCH) } + Sample(40, 80, PHONE),
+            merged
+        )
+    }
+    
+    @Test
+    fun disallowedSourcesAreDropped() {
+        val merged = merge(
+            SourcePriorityPolicy(allowedOrigins = setOf(PHONE)),
+            span(WATCH, 0, 30, step = 10, bpm = 120),
+            span(PHONE, 0, 30, step = 15, bpm = 80)
+        )
+        
+        assertEquals((0L..30L step 15).map { Sample(it, 80, PHONE) }, merged)
+    }
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun spansOutOfStartOrderAreRejected() {
+        merge(
+            SourcePriorityPolicy(),
+            span(WATCH, 10, 20, step = 10, bpm = 120),
+            span(PHONE, 0, 20, step = 10, bpm = 80)
+        )
+    }
+    
+    private data class Sample(val seconds: Long, val bpm: Int, val origin: String)
+    
+    private fun merge(policy: SourcePriorityPolicy, vararg spans: HeartRateSpan): List<Sample> {
+        val samples = mutableListOf<Sample>()
+        val session = HeartRateSourceMerger(policy).newSession(object : SampleSink {
+            override fun accept(epochMillis: Long, bpm: Int) {
+                throw AssertionError("Merged samples carry their source")
+            }
+            
+            override fun acceptFrom(epochMillis: Long, bpm: Int, origin: String) {
+                samples.add(Sample(epochMillis / 1000, bpm, origin))
+            }
+        })
+        spans.forEach(session::add)
+        session.finish()
+        return samples
+    }
+    
+    private fun span(origin: String, startSeconds: Long, endSeconds: Long, step: Long, bpm: Int): HeartRateSpan {
+        val seconds = (startSeconds..endSeconds step step).toList()
+        return TracedHeartRate(
+            recordId = "$origin-$startSeconds",
+            origin = origin,
+            startMillis = startSeconds * 1000,
+            endMillis = endSeconds * 1000,
+            sampleMillis = LongArray(seconds.size) { seconds[it] * 1000 },
+            bpms = IntArray(seconds.size) { bpm }
+        )
+    }
+    
+    companion object {
+        private const val WATCH = "com.example.watch"
+        private const val PHONE = "com.example.phone"
+    }
+}
\ No newline at end of file
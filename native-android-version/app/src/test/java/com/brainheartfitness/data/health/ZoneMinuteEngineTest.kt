@@ -0,0 +1,137 @@
+package com.brainheartfitness.data.health
+
+import androidx.compose.ui.graphics.Color
+import com.brainheartfitness.data.model.HeartRateZone
+import com.brainheartfitness.data.model.ZoneProfile
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.time.Instant
+
+// The engine fed by hand, timings in seconds from START, every sample in the profile's
+// middle zone so zone minutes read as plain durations.
+class ZoneMinuteEngineTest {
+    
+    @Test
+    fun gapSplitsSessions() {
+        val engine = ZoneMinuteEngine(PROFILE)
+        feed(engine, fromSeconds = 0, toSeconds = 900)
+        feed(engine, fromSeconds = 1500, toSeconds = 2400)
+        val summary = engine.finish(at(2410))
+        
+        assertEquals(2, summary.sessions.size)
+        // The first is credited its last sample's capped minute, the second up to the finish
+        assertEquals(at(0), summary.sessions[0].startTime)
+        assertEquals(at(960), summary.sessions[0].endTime)
+        assertEquals(16, summary.sessions[0].zoneMinutes["steady"])
+        assertEquals(at(1500), summary.sessions[1].startTime)
+        assertEquals(at(2410), summary.sessions[1].endTime)
+        assertEquals(31, summary.zoneMinutes["steady"])
+    }
+    
+    @Test
+    fun shortStretchCountsButIsNotASession() {
+        val engine = ZoneMinuteEngine(PROFILE)
+        feed(engine, fromSeconds = 0, toSeconds = 240)
+        feed(engine, fromSeconds = 900, toSeconds = 1800)
+        val summary = engine.finish(at(1810))
+        
+        assertEquals(1, summary.sessions.size)
+        assertEquals(at(900), summary.sessions[0].startTime)
+        assertEquals(20, summary.zoneMinutes["steady"])
+    }
+    
+    @Test
+    fun windowsAreSessions() {
+        val engine = ZoneMinuteEngine(
+            PROFILE,
+            minSessionMillis = 0,
+            sessionWindows = listOf(millis(600) to millis(1200), millis(2400) to millis(3000))
+        )
+        feed(engine, fromSeconds = 0, toSeconds = 3570, stepSeconds = 30)
+        val summary = engine.finish(at(3600))
+        
+        assertEquals(2, summary.sessions.size)
+        assertEquals(at(600), summary.sessions[0].startTime)
+        assertEquals(at(1200), summary.sessions[0].endTime)
+        assertEquals(10, summary.sessions[0].zoneMinutes["steady"])
+        assertEquals(at(2400), summary.sessions[1].startTime)
+        assertEquals(at(3000), summary.sessions[1].endTime)
+        assertEquals(10, summary.sessions[1].zoneMinutes["steady"])
+        // Samples outside the windows still count towards the totals
+        assertEquals(60, summary.zoneMinutes["steady"])
+    }
+    
+    @Test
+    fun windowWithoutSamplesIsSkipped() {
+        val engine = ZoneMinuteEngine(
+            PROFILE,
+            minSessionMillis = 0,
+            sessionWindows = listOf(millis(0) to millis(300), millis(600) to millis(1200))
+        )
+        feed(engine, fromSeconds = 600, toSeconds = 1190)
+        val summary = engine.finish(at(1200))
+        
+        assertEquals(1, summary.sessions.size)
+        assertEquals(at(600), summary.sessions[0].startTime)
+        assertEquals(at(1200), summary.sessions[0].endTime)
+    }
+    
+    @Test
+    fun openWindowEndsAtTheFinish() {
+        // A workout in progress: its window runs an hour past the last sample
+        val engine = ZoneMinuteEngine(
+            PROFILE,
+            minSessionMillis = 0,
+            sessionWindows = listOf(millis(0) to millis(3600))
+        )
+        feed(engine, fromSeconds = 0, toSeconds = 1200, stepSeconds = 30)
+        val summary = engine.finish(at(1220))
+        
+        assertEquals(1, summary.sessions.size)
+        assertEquals(at(1220), summary.sessions[0].endTime)
+        assertEquals(20, summary.sessions[0].zoneMinutes["steady"])
+    }
+    
+    @Test(expected = IllegalArgumentException::class)
+    fun samplesOutOfOrderAreRejected() {
+        val engine = ZoneMinuteEngine(PROFILE)
+        engine.accept(millis(10), BPM)
+        engine.accept(millis(5), BPM)
+    }
+    
+    private fun feed(engine: ZoneMinuteEngine, fromSeconds: Long, toSeconds: Long, stepSeconds: Long = 10) {
+        var seconds = fromSeconds
+        while (seconds <= toSeconds) {
+            engine.accept(millis(seconds), BPM)
+            seconds += stepSeconds
+        }
+    }
+    
+    private fun millis(seconds: Long): Long = START + seconds * 1000
+    
+    private fun at(seconds: Long): Instant = Instant.ofEpochMilli(millis(seconds))
+    
+    companion object {
+        private const val START = 1_700_000_000_000L
+        private const val BPM = 120
+        
+        private val PROFILE = ZoneProfile.compile(
+            zones = listOf(
+                zone("easy", 0, 99),
+                zone("steady", 100, 139),
+                zone("hard", 140, 255)
+            ),
+            dailyZone2PlusGoal = 30,
+            weeklyZone2PlusGoal = 150
+        )
+        
+        private fun zone(id: String, minBpm: Int, maxBpm: Int) = HeartRateZone(
+            id = id,
+            name = id,
+            description = id,
+            minBpm = minBpm,
+            maxBpm = maxBpm,
+            color = Color(0xFF81C784)
+        )
+    }
+}
\ No newline at end of file
@@ -0,0 +1,117 @@
+package com.brainheartfitness.data.local
+
+import androidx.compose.ui.graphics.Color
+import com.brainheartfitness.data.model.HeartRateZone
+import com.brainheartfitness.data.model.ZoneProfile
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+// The histogram fed by hand, timings in seconds from START, classified by a profile with
+// a gap between two of its zones.
+class BpmHistogramTest {
+    
+    @Test
+    fun eachSampleIsCreditedTheTimeUntilTheNext() {
+        val histogram = BpmHistogram()
+        histogram.accept(at(0), 100)
+        histogram.accept(at(40), 150)
+        histogram.finish(at(75))
+        
+        assertEquals(mapOf("easy" to 0, "steady" to 1, "hard" to 1), histogram.zoneMinutes(PROFILE))
+        assertEquals(75, histogram.totalSeconds)
+    }
+    
+    @Test
+    fun creditIsCappedAtAMinutePerSample() {
+        val histogram = BpmHistogram()
+        histogram.accept(at(0), 100)
+        // Taken off for three hours
+        histogram.accept(at(3 * 3600L), 100)
+        histogram.finish(at(3 * 3600L + 10))
+        
+        assertEquals(BpmHistogram.MAX_SAMPLE_CREDIT_MILLIS / 1000 + 10, histogram.totalSeconds.toLong())
+    }
+    
+    @Test
+    fun lastSampleIsCappedToo() {
+        val histogram = BpmHistogram()
+        histogram.accept(at(0), 100)
+        histogram.finish(at(24 * 3600L))
+        
+        assertEquals(BpmHistogram.MAX_SAMPLE_CREDIT_MILLIS / 1000, histogram.totalSeconds.toLong())
+    }
+    
+    @Test
+    fun subSecondSpacingAddsUpToWholeSeconds() {
+        val histogram = BpmHistogram()
+        repeat(8) { histogram.accept(START + it * 250L, 100) }
+        histogram.finish(START + 8 * 250L)
+        
+        assertEquals(2, histogram.totalSeconds)
+    }
+    
+    @Test
+    fun samplesOutOfOrderCreditNothing() {
+        val histogram = BpmHistogram()
+        histogram.accept(at(30), 100)
+        histogram.accept(at(10), 100)
+        histogram.finish(at(20))
+        
+        assertEquals(10, histogram.totalSeconds)
+    }
+    
+    @Test
+    fun zoneBoundariesAreInclusive() {
+        val histogram = BpmHistogram()
+        // A minute each at both edges of every zone, and in the gap between steady and hard
+        listOf(0, 99, 100, 139, 140, 149, 150, 255, 300).forEachIndexed { minute, bpm ->
+            histogram.accept(at(minute * 60L), bpm)
+        }
+        histogram.finish(at(9 * 60L))
+        
+        // 300 is read as 255, the top of the table
+        assertEquals(mapOf("easy" to 2, "steady" to 2, "hard" to 3), histogram.zoneMinutes(PROFILE))
+        assertEquals(9 * 60, histogram.totalSeconds)
+    }
+    
+    @Test
+    fun histogramsAddUpAndRoundTripThroughBytes() {
+        val monday = BpmHistogram()
+        monday.accept(at(0), 110)
+        monday.finish(at(60))
+        val tuesday = BpmHistogram()
+        tuesday.accept(at(0), 160)
+        tuesday.finish(at(60))
+        
+        val week = BpmHistogram.fromBytes(monday.toBytes())
+        week.add(tuesday)
+        
+        assertEquals(mapOf("easy" to 0, "steady" to 1, "hard" to 1), week.zoneMinutes(PROFILE))
+        assertEquals(BpmHistogram.BINS * Int.SIZE_BYTES, week.toBytes().size)
+    }
+    
+    private fun at(seconds: Long): Long = START + seconds * 1000
+    
+    companion object {
+        private const val START = 1_700_000_000_000L
+        
+        private val PROFILE = ZoneProfile.compile(
+            zones = listOf(
+                zone("easy", 0, 99),
+                zone("steady", 100, 139),
+                zone("hard", 150, 255)
+            ),
+            dailyZone2PlusGoal = 30,
+            weeklyZone2PlusGoal = 150
+        )
+        
+        private fun zone(id: String, minBpm: Int, maxBpm: Int) = HeartRateZone(
+            id = id,
+            name = id,
+            description = id,
+            minBpm = minBpm,
+            maxBpm = maxBpm,
+            color = Color(0xFF81C784)
+        )
+    }
+}
\ No newline at end of file
@@ -0,0 +1,127 @@
+package com.brainheartfitness.data.local
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.IOException
+
+// The chunk codec on its own: whatever goes into a chunk comes back out, sample for sample,
+// including the shapes the delta streams find awkward.
+class HeartRateChunkCodecTest {
+    
+    @Test
+    fun steadyStreamRoundTripsInAboutTwoBytesPerSample() {
+        val columns = SampleColumns()
+        repeat(3600) { second -> columns.append(CHUNK_START + second * 1000L, 60 + second % 5, 1) }
+        
+        val chunk = HeartRateChunkCodec.encode(CHUNK_START, columns)
+        
+        assertRoundTrips(columns, chunk)
+        assertTrue("${chunk.data.size} bytes", chunk.data.size <= columns.size * 3)
+    }
+    
+    @Test
+    fun longGapsRoundTrip() {
+        val columns = SampleColumns()
+        columns.append(CHUNK_START, 70, 1)
+        columns.append(CHUNK_START + 1_000, 71, 1)
+        // A watch off the wrist for hours, then a second's gap again
+        columns.append(CHUNK_START + 5 * HOUR_MILLIS, 72, 1)
+        columns.append(CHUNK_START + 5 * HOUR_MILLIS + 1_000, 73, 1)
+        columns.append(CHUNK_START + 40 * DAY_MILLIS, 74, 1)
+        
+        assertRoundTrips(columns, HeartRateChunkCodec.encode(CHUNK_START, columns))
+    }
+    
+    @Test
+    fun negativeDeltasRoundTrip() {
+        val columns = SampleColumns()
+        // Shrinking gaps, a repeated timestamp, a step back in time and falling BPMs
+        columns.append(CHUNK_START + 10_000, 180, 1)
+        columns.append(CHUNK_START + 15_000, 150, 1)
+        columns.append(CHUNK_START + 16_000, 90, 1)
+        columns.append(CHUNK_START + 16_000, 89, 1)
+        columns.append(CHUNK_START + 12_000, 40, 1)
+        columns.append(CHUNK_START + 12_500, 41, 1)
+        
+        assertRoundTrips(columns, HeartRateChunkCodec.encode(CHUNK_START, columns))
+    }
+    
+    @Test
+    fun varintBoundariesRoundTrip() {
+        val columns = SampleColumns()
+        var time = CHUNK_START + 127
+        // Deltas, BPMs and origin ids either side of one, two and three byte varints
+        listOf(0L, 63L, 64L, 127L, 128L, 8191L, 8192L, 16383L, 16384L, 2_097_151L, 2_097_152L).forEachIndexed { i, delta ->
+            time += delta
+            val bpm = listOf(0, 63, 64, 127, 128, 255, 300)[i % 7]
+            val originId = listOf(0, 127, 128, 16383, 16384)[i % 5]
+            columns.append(time, bpm, originId)
+        }
+        
+        assertRoundTrips(columns, HeartRateChunkCodec.encode(CHUNK_START, columns))
+    }
+    
+    @Test
+    fun originRunsLongerThanOneByteRoundTrip() {
+        val columns = SampleColumns()
+        repeat(127) { columns.append(CHUNK_START + it * 1000L, 80, 1) }
+        repeat(128) { columns.append(CHUNK_START + (127 + it) * 1000L, 80, 2) }
+        repeat(300) { columns.append(CHUNK_START + (255 + it) * 1000L, 80, 1) }
+        
+        assertRoundTrips(columns, HeartRateChunkCodec.encode(CHUNK_START, columns))
+    }
+    
+    @Test
+    fun decodeAppendsAfterWhatTheColumnsHold() {
+        val first = SampleColumns()
+        first.append(CHUNK_START, 60, 1)
+        first.append(CHUNK_START + 1_000, 61, 1)
+        val second = SampleColumns()
+        second.append(CHUNK_START + HOUR_MILLIS, 90, 2)
+        val firstChunk = HeartRateChunkCodec.encode(CHUNK_START, first)
+        val secondChunk = HeartRateChunkCodec.encode(CHUNK_START + HOUR_MILLIS, second)
+        
+        val decoded = SampleColumns(initialCapacity = 1)
+        HeartRateChunkCodec.decode(firstChunk.chunkStart, firstChunk.sampleCount, firstChunk.data, decoded)
+        HeartRateChunkCodec.decode(secondChunk.chunkStart, secondChunk.sampleCount, secondChunk.data, decoded)
+        
+        assertEquals(3, decoded.size)
+        assertArrayEquals(
+            longArrayOf(CHUNK_START, CHUNK_START + 1_000, CHUNK_START + HOUR_MILLIS),
+            decoded.times.copyOf(decoded.size)
+        )
+        assertArrayEquals(intArrayOf(60, 61, 90), decoded.bpms.copyOf(decoded.size))
+        assertArrayEquals(intArrayOf(1, 1, 2), decoded.originIds.copyOf(decoded.size))
+    }
+    
+    @Test(expected = IOException::class)
+    fun truncatedChunkIsRejected() {
+        val columns = SampleColumns()
+        repeat(10) { columns.append(CHUNK_START + it * 1000L, 60 + it, 1) }
+        val chunk = HeartRateChunkCodec.encode(CHUNK_START, columns)
+        
+        HeartRateChunkCodec.decode(chunk.chunkStart, chunk.sampleCount, chunk.data.copyOf(chunk.data.size - 2), SampleColumns())
+    }
+    
+    private fun assertRoundTrips(expected: SampleColumns, chunk: HeartRateChunkEntity) {
+        assertEquals(expected.size, chunk.sampleCount)
+        assertEquals(expected.times[0], chunk.firstMillis)
+        assertEquals(expected.times[expected.size - 1], chunk.lastMillis)
+        
+        val decoded = SampleColumns()
+        HeartRateChunkCodec.decode(chunk.chunkStart, chunk.sampleCount, chunk.data, decoded)
+        
+        assertEquals(expected.size, decoded.size)
+        assertArrayEquals(expected.times.copyOf(expected.size), decoded.times.copyOf(decoded.size))
+        assertArrayEquals(expected.bpms.copyOf(expected.size), decoded.bpms.copyOf(decoded.size))
+        assertArrayEquals(expected.originIds.copyOf(expected.size), decoded.originIds.copyOf(decoded.size))
+    }
+    
+    companion object {
+        private const val CHUNK_START = 1_700_000_000_000L
+        private const val HOUR_MILLIS = 60 * 60 * 1000L
+        private const val DAY_MILLIS = 24 * HOUR_MILLIS
+    }
+}
\ No newline at end of file
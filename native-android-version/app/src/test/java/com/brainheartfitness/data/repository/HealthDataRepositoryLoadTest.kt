@@ -0,0 +1,114 @@
+package com.brainheartfitness.data.repository
+
+import android.os.Build
+import com.brainheartfitness.data.health.HarnessCall
+import com.brainheartfitness.data.health.HarnessConfig
+import com.brainheartfitness.data.health.HealthConnectScheduler
+import com.brainheartfitness.data.health.HealthDataHarness
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.time.LocalDate
+import java.time.ZoneOffset
+import java.util.TimeZone
+
+// Daily summaries through the real repository on HealthDataHarness. The day is two weeks
+// back, outside the synced week, so its reads go to the client and can be counted.
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [Build.VERSION_CODES.UPSIDE_DOWN_CAKE])
+class HealthDataRepositoryLoadTest {
+    private lateinit var defaultTimeZone: TimeZone
+    
+    @Before
+    fun setUp() {
+        // The repository cuts days in the system zone, the synthetic data in UTC
+        defaultTimeZone = TimeZone.getDefault()
+        TimeZone.setDefault(TimeZone.getTimeZone(ZoneOffset.UTC))
+    }
+    
+    @After
+    fun tearDown() {
+        TimeZone.setDefault(defaultTimeZone)
+    }
+    
+    @Test
+    fun smallPagesTakeMoreReadsForTheSameSummary() = runBlocking {
+        val baseline = newHarness(HarnessConfig())
+        val paged = newHarness(HarnessConfig(pageSize = 2))
+        val date = workoutDate(baseline)
+        
+        val expected = baseline.harness.measure { baseline.harness.repository.getDailyHealthSummary(date) }
+        val actual = paged.harness.measure { paged.harness.repository.getDailyHealthSummary(date) }
+        
+        assertEquals(expected.value, actual.value)
+        assertTrue(actual.value.sessions.isNotEmpty())
+        assertTrue(
+            paged.harness.client.callsOf(HarnessCall.READ_RECORDS) > baseline.harness.client.callsOf(HarnessCall.READ_RECORDS)
+        )
+    }
+    
+    @Test
+    fun throttledCallIsRetriedAfterBackoff() = runBlocking {
+        val baseline = newHarness(HarnessConfig())
+        val throttled = newHarness(HarnessConfig(throttledCalls = setOf(1)))
+        val date = workoutDate(baseline)
+        
+        val expected = baseline.harness.measure { baseline.harness.repository.getDailyHealthSummary(date) }
+        val actual = throttled.harness.measure { throttled.harness.repository.getDailyHealthSummary(date) }
+        
+        assertEquals(expected.value, actual.value)
+        assertEquals(1, throttled.harness.client.throttledCalls)
+        // The rejected call is made again, everything else once as in the baseline
+        assertEquals(expected.calls + 1, actual.calls)
+        // Backoff is at least half the initial delay
+        assertTrue(actual.elapsed.toMillis() >= HealthConnectScheduler.INITIAL_BACKOFF_MILLIS / 2)
+    }
+    
+    @Test
+    fun latencyIsPaidOncePerLoadAndNotAgainForTheCachedDay() = runBlocking {
+        val latencyMillis = 50L
+        val seeded = newHarness(HarnessConfig(defaultLatencyMillis = latencyMillis))
+        val date = workoutDate(seeded)
+        
+        val first = seeded.harness.measure { seeded.harness.repository.getDailyHealthSummary(date) }
+        val second = seeded.harness.measure { seeded.harness.repository.getDailyHealthSummary(date) }
+        
+        assertTrue(first.calls > 0)
+        assertTrue(first.elapsed.toMillis() >= latencyMillis)
+        assertEquals(first.value, second.value)
+        assertEquals(0, second.calls)
+    }
+    
+    private class Seeded(val harness: HealthDataHarness, val startDate: LocalDate, val endDate: LocalDate)
+    
+    // One sample per record, so a day of heart rate spans many pages
+    private suspend fun newHarness(config: HarnessConfig): Seeded {
+        val harness = HealthDataHarness(config)
+        val today = LocalDate.now(ZoneOffset.UTC)
+        val startDate = today.minusDays(SEEDED_DAYS)
+        val endDate = today.minusDays(SEEDED_DAYS - WORKOUT_SEARCH_DAYS)
+        harness.seed(startDate, endDate, samplesPerRecord = 1)
+        return Seeded(harness, startDate, endDate)
+    }
+    
+    // A day with a workout, so exercise-scoped heart rate has something to read
+    private fun workoutDate(seeded: Seeded): LocalDate {
+        val zoneId = seeded.harness.synthetic.profile.zoneId
+        val workout = seeded.harness.synthetic.getWorkouts(
+            seeded.startDate.atStartOfDay(zoneId).toInstant(),
+            seeded.endDate.atStartOfDay(zoneId).toInstant()
+        ).first { it.startTime.atZone(zoneId).toLocalDate() == it.endTime.atZone(zoneId).toLocalDate() }
+        return workout.startTime.atZone(zoneId).toLocalDate()
+    }
+    
+    companion object {
+        private const val SEEDED_DAYS = 21L
+        private const val WORKOUT_SEARCH_DAYS = 7L
+    }
+}
\ No newline at end of file
@@ -0,0 +1,102 @@
+package com.brainheartfitness.data.repository
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.fail
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+// Loads are held on a gate so callers can be made to overlap, callers start undispatched so
+// each has joined its flight before the next one starts.
+class SingleFlightTest {
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+    private val singleFlight = SingleFlight<String, Int>(scope)
+    private val loads = AtomicInteger()
+    
+    @After
+    fun tearDown() {
+        scope.cancel()
+    }
+    
+    @Test
+    fun concurrentCallersShareOneLoad() = runBlocking {
+        val gate = CompletableDeferred<Unit>()
+        val callers = List(3) {
+            async(start = CoroutineStart.UNDISPATCHED) { singleFlight.run("week") { load(gate, 42) } }
+        }
+        gate.complete(Unit)
+        
+        assertEquals(listOf(42, 42, 42), callers.map { it.await() })
+        assertEquals(1, loads.get())
+    }
+    
+    @Test
+    fun differentKeysLoadSeparately() = runBlocking {
+        val gate = CompletableDeferred<Unit>()
+        val week = async(start = CoroutineStart.UNDISPATCHED) { singleFlight.run("week") { load(gate, 1) } }
+        val day = async(start = CoroutineStart.UNDISPATCHED) { singleFlight.run("day") { load(gate, 2) } }
+        gate.complete(Unit)
+        
+        assertEquals(1, week.await())
+        assertEquals(2, day.await())
+        assertEquals(2, loads.get())
+    }
+    
+    @Test
+    fun finishedFlightIsNotReused() = runBlocking {
+        val done = CompletableDeferred(Unit)
+        assertEquals(1, singleFlight.run("week") { load(done, 1) })
+        assertEquals(2, singleFlight.run("week") { load(done, 2) })
+        assertEquals(2, loads.get())
+    }
+    
+    @Test
+    fun failureReachesEveryCallerAndTheNextCallLoadsAgain() = runBlocking {
+        val gate = CompletableDeferred<Unit>()
+        val callers = List(2) {
+            async(start = CoroutineStart.UNDISPATCHED) {
+                runCatching { singleFlight.run("week") { load(gate) { throw IllegalStateException("read failed") } } }
+            }
+        }
+        gate.complete(Unit)
+        
+        callers.forEach { assertEquals("read failed", it.await().exceptionOrNull()?.message) }
+        assertEquals(1, loads.get())
+        assertEquals(7, singleFlight.run("week") { load(gate, 7) })
+    }
+    
+    @Test
+    fun cancelledCallerLeavesTheLoadToTheOthers() = runBlocking {
+        val gate = CompletableDeferred<Unit>()
+        val cancelled = async(start = CoroutineStart.UNDISPATCHED) { singleFlight.run("week") { load(gate, 42) } }
+        val waiting = async(start = CoroutineStart.UNDISPATCHED) { singleFlight.run("week") { load(gate, 0) } }
+        cancelled.cancel()
+        gate.complete(Unit)
+        
+        assertEquals(42, waiting.await())
+        assertEquals(1, loads.get())
+        try {
+            cancelled.await()
+            fail("Expected the caller to be cancelled")
+        } catch (e: CancellationException) {
+            // The caller stopped waiting, the load went on
+        }
+    }
+    
+    private suspend fun load(gate: CompletableDeferred<Unit>, value: Int): Int = load(gate) { value }
+    
+    private suspend fun load(gate: CompletableDeferred<Unit>, block: () -> Int): Int {
+        loads.incrementAndGet()
+        gate.await()
+        return block()
+    }
+}
\ No newline at end of file
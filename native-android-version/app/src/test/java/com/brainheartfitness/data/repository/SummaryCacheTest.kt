@@ -0,0 +1,157 @@
+package com.brainheartfitness.data.repository
+
+import android.os.Build
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import com.brainheartfitness.data.local.HealthDatabase
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.time.Duration
+import java.time.LocalDate
+import java.time.ZoneId
+
+// The cache over an in-memory database. A second SummaryCache on the same database stands
+// in for a restart: it has the disk tier and nothing in memory.
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [Build.VERSION_CODES.UPSIDE_DOWN_CAKE])
+class SummaryCacheTest {
+    private lateinit var database: HealthDatabase
+    private lateinit var cache: SummaryCache
+    private val today = LocalDate.now()
+    private var loads = 0
+    
+    @Before
+    fun setUp() {
+        database = Room.inMemoryDatabaseBuilder(
+            ApplicationProvider.getApplicationContext(),
+            HealthDatabase::class.java
+        ).build()
+        cache = SummaryCache(database, FreshnessPolicy())
+    }
+    
+    @After
+    fun tearDown() {
+        database.close()
+    }
+    
+    @Test
+    fun sealedRangeIsKeptInMemoryAndOnDisk() = runBlocking {
+        val key = dayKey(today.minusDays(30))
+        
+        assertEquals("first", load(cache, key, "first"))
+        assertEquals("first", load(cache, key, "second"))
+        assertEquals("first", load(SummaryCache(database, FreshnessPolicy()), key, "third"))
+        assertEquals(1, loads)
+    }
+    
+    @Test
+    fun recentRangeIsKeptInMemoryOnly() = runBlocking {
+        val key = dayKey(today)
+        
+        load(cache, key, "first")
+        assertEquals("first", load(cache, key, "second"))
+        assertEquals("third", load(SummaryCache(database, FreshnessPolicy()), key, "third"))
+        assertEquals(2, loads)
+    }
+    
+    @Test
+    fun recentRangeExpires() = runBlocking {
+        val expiring = SummaryCache(database, FreshnessPolicy(todayTtl = Duration.ZERO))
+        val key = dayKey(today)
+        
+        load(expiring, key, "first")
+        assertEquals("second", load(expiring, key, "second"))
+        assertEquals(2, loads)
+    }
+    
+    @Test
+    fun invalidationDropsOverlappingRangesOnly() = runBlocking {
+        val changed = dayKey(today.minusDays(30))
+        val untouched = dayKey(today.minusDays(20))
+        load(cache, changed, "old")
+        load(cache, untouched, "kept")
+        
+        cache.invalidate(startOf(changed.startDate).plusSeconds(3600), startOf(changed.startDate).plusSeconds(7200))
+        
+        assertEquals("new", load(cache, changed, "new"))
+        assertEquals("kept", load(cache, untouched, "other"))
+        // Gone from disk too
+        val restarted = SummaryCache(database, FreshnessPolicy())
+        assertEquals("new", load(restarted, changed, "newer"))
+        assertEquals(3, loads)
+    }
+    
+    @Test
+    fun invalidateAllDropsEverything() = runBlocking {
+        val first = dayKey(today.minusDays(30))
+        val second = dayKey(today.minusDays(20))
+        load(cache, first, "old")
+        load(cache, second, "old")
+        
+        cache.invalidateAll()
+        
+        assertEquals("new", load(cache, first, "new"))
+        assertEquals("new", load(SummaryCache(database, FreshnessPolicy()), second, "new"))
+        assertEquals(4, loads)
+    }
+    
+    @Test
+    fun loadOverlappingAnInvalidationIsNotStored() = runBlocking {
+        val key = dayKey(today.minusDays(30))
+        
+        // A sync reports a change while the summary is being computed from the old data
+        val stale = cache.getOrLoad(key, StringCodec) {
+            loads++
+            cache.invalidate(startOf(key.startDate), startOf(key.endDate))
+            "stale"
+        }
+        
+        assertEquals("stale", stale)
+        assertEquals("fresh", load(cache, key, "fresh"))
+        assertEquals(2, loads)
+    }
+    
+    @Test
+    fun leastRecentlyUsedEntriesAreEvictedFromMemory() = runBlocking {
+        // Five of these are over the memory budget
+        val large = "x".repeat(60_000)
+        val keys = (1..5L).map { dayKey(today.minusDays(30 + it)) }
+        keys.forEach { load(cache, it, large) }
+        // Only what memory still holds is served without the disk
+        database.summaryCacheDao().deleteAll()
+        
+        assertEquals(large, load(cache, keys.last(), "reloaded"))
+        assertEquals("reloaded", load(cache, keys.first(), "reloaded"))
+        assertEquals(keys.size + 1, loads)
+    }
+    
+    private suspend fun load(cache: SummaryCache, key: QueryKey, value: String): String =
+        cache.getOrLoad(key, StringCodec) {
+            loads++
+            value
+        }
+    
+    private fun dayKey(date: LocalDate) = QueryKey(
+        kind = QueryKind.DAILY_SUMMARY,
+        startDate = date,
+        endDate = date.plusDays(1),
+        zoneProfileVersion = 1L,
+        goalsVersion = 1L
+    )
+    
+    private fun startOf(date: LocalDate) = date.atStartOfDay(ZoneId.systemDefault()).toInstant()
+    
+    private object StringCodec : SummaryCodec<String> {
+        override fun encode(value: String, output: DataOutputStream) = output.writeUTF(value)
+        
+        override fun decode(input: DataInputStream): String = input.readUTF()
+    }
+}
\ No newline at end of file
@@ -82,6 +82,29 @@ export interface DailyHeartRateSummary {
   minHeartRate: number;
 }
 
+/**
+ * Zones compiled into a 256-entry BPM lookup table, so classifying a sample
+ * is one array read instead of a search through the zones
+ */
+interface CompiledZones {
+  zones: HeartRateZone[];
+  zoneIndexByBpm: Uint8Array;
+}
+
+const NO_ZONE = 0xff;
+
+function compileZones(zones: HeartRateZone[]): CompiledZones {
+  const zoneIndexByBpm = new Uint8Array(256).fill(NO_ZONE);
+  for (let bpm = 0; bpm < zoneIndexByBpm.length; bpm++) {
+    // Where zones overlap, the first one covering the BPM wins
+    const index = zones.findIndex((z) => bpm >= z.minBpm && bpm <= z.maxBpm);
+    if (index >= 0) {
+      zoneIndexByBpm[bpm] = index;
+    }
+  }
+  return { zones, zoneIndexByBpm };
+}
+
 export interface HealthDataPermissions {
   healthConnect: boolean;
   googleFit: boolean;
@@ -143,6 +166,9 @@ export class HealthDataService {
     },
   ];
 
+  // Recompiled only when a different zones array comes in
+  private compiledZones: CompiledZones = compileZones(this.defaultZones);
+
   private constructor() {}
 
   public static getInstance(): HealthDataService {
@@ -512,6 +538,7 @@ export class HealthDataService {
     }
 
     const zones = this.getHeartRateZones();
+    const compiled = this.getCompiledZones(zones);
     const zoneBreakdown: { [zoneId: string]: number } = {};
     zones.forEach((zone) => (zoneBreakdown[zone.id] = 0));
 
@@ -532,7 +559,7 @@ export class HealthDataService {
         const lastPoint = currentSession[currentSession.length - 1];
         if (point.timestamp - lastPoint.timestamp > sessionGap) {
           // End current session and start new one
-          sessions.push(this.createSession(currentSession, zones));
+          sessions.push(this.createSession(currentSession, compiled));
           currentSession = [];
         }
       }
@@ -547,7 +574,7 @@ export class HealthDataService {
 
     // Add final session
     if (currentSession.length > 0) {
-      sessions.push(this.createSession(currentSession, zones));
+      sessions.push(this.createSession(currentSession, compiled));
     }
 
     // Calculate total minutes and zone breakdown
@@ -571,13 +598,24 @@ export class HealthDataService {
     };
   }
 
+  /**
+   * Compiled lookup for the given zones, reused while they stay the same
+   */
+  private getCompiledZones(zones: HeartRateZone[]): CompiledZones {
+    if (this.compiledZones.zones !== zones) {
+      this.compiledZones = compileZones(zones);
+    }
+    return this.compiledZones;
+  }
+
   /**
    * Create a heart rate session from data points
    */
   private createSession(
     dataPoints: HeartRateDataPoint[],
-    zones: HeartRateZone[]
+    compiled: CompiledZones
   ): HeartRateSession {
+    const { zones, zoneIndexByBpm } = compiled;
     const startTime = dataPoints[0].timestamp;
     const endTime = dataPoints[dataPoints.length - 1].timestamp;
 
@@ -592,12 +630,12 @@ export class HealthDataService {
       maxHeartRate = Math.max(maxHeartRate, point.value);
       minHeartRate = Math.min(minHeartRate, point.value);
 
-      // Determine which zone this heart rate belongs to
-      const zone = zones.find(
-        (z) => point.value >= z.minBpm && point.value <= z.maxBpm
-      );
-      if (zone) {
-        zoneMinutes[zone.id] += 1; // Assuming 1-minute intervals
+      // Determine which zone this heart rate belongs to, readings above the
+      // table take its top entry
+      const bpm = Math.min(Math.max(Math.round(point.value), 0), 255);
+      const zoneIndex = zoneIndexByBpm[bpm];
+      if (zoneIndex !== NO_ZONE) {
+        zoneMinutes[zones[zoneIndex].id] += 1; // Assuming 1-minute intervals
       }
     });
 